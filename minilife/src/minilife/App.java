@@ -23,6 +23,13 @@
  */
 package minilife;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
 ////////////////////////////////////////////////////////////////////////////////
 //
 // UWAGA: komentarze po dwóch ukośnikach są - w tym konkretnym projekcie
@@ -53,8 +60,34 @@ public class App {
      * Program (aplikację) można wywołać bez parametrów, albo z parametrem
      * określającym jak duża ma być plansza.
      *
-     * @param args args[0] może określać rozmiar planszy jako liczbę zapisaną
-     * jako łańcuch znaków
+     * @param args args[0] może określać szerokość, a args[1] wysokość planszy
+     * jako liczby zapisane jako łańcuchy znaków, opcja --engine=nazwa wybiera
+     * silnik (array, bitboard, tiled, sparse, hashlife, swar albo offheap),
+     * opcja --off-heap-file=plik plik roboczy silnika offheap, opcja
+     * --threads=n liczbę wątków silnika bitboard, opcja --block=k liczenie
+     * przez silnik bitboard k pokoleń naraz w pasach mieszczących się
+     * w pamięci podręcznej procesora, opcja --workers=n liczenie przez
+     * silnik bitboard w n osobnych procesach, opcja --boundary=nazwa
+     * brzeg planszy (wall, dead, torus albo mirror), opcja --rule=reguła
+     * regułę (minilife, minilife-moore albo np. B3/S23), opcja --step=n liczbę
+     * pokoleń między rysunkami, opcja --generations=n liczbę wszystkich
+     * pokoleń, opcja --ansi rysowanie tylko zmian (terminal ANSI), opcja
+     * --viewport=wiersz,kolumna,wiersze,kolumny rysowanie tylko okna planszy,
+     * opcja --zoom=k jeden znak na kwadrat k na k komórek, opcja
+     * --load=plik wczytuje planszę z pliku, opcja --pattern=plik@wiersz,kolumna
+     * wstawia wzór z pliku RLE albo tekstowego (można ją powtarzać), opcje
+     * --checkpoint=plik i --checkpoint-every=n zapisują planszę co n
+     * pokoleń, opcja --headless włącza tryb wsadowy bez rysowania z raportem
+     * szybkości (opcje --warmup=n pokoleń rozgrzewki i --report=plik na
+     * raport), opcja --swing rysowanie w okienku zamiast na konsoli, opcja
+     * --pipeline[=n] rysowanie w osobnym wątku, równolegle z liczeniem (n to
+     * pojemność kolejki pokoleń), opcja --detect-cycles wykrywanie stanu
+     * ustalonego i cykli, opcja --statistics=plik zapis statystyk (liczby
+     * zajętych komórek itd.) każdego pokolenia, opcja --ensemble=n liczenie n
+     * losowych plansz naraz ze statystykami wszystkich razem (opcja --seed=s
+     * ziarno losowania), opcja --history=MB zapamiętywanie pokoleń, do których
+     * model może wrócić (opcja --keyframe-every=n co ile pokoleń zapamiętać
+     * całą planszę)
      */
     public static void main(String[] args) {
 
@@ -71,8 +104,16 @@ public class App {
         // jakie wynikałyby z programowania wewnątrz metody statycznej (takiej
         // jaką jest funkcja main). Po prostu run() jest już static.
         //
-        App app = new App(args);
-        app.run();
+        // Konstruktor może się nie udać, np. gdy nie da się wczytać planszy
+        // z pliku podanego opcją --load. Wtedy nie ma czego uruchamiać.
+        //
+        try {
+            App app = new App(args);
+            app.run();
+        } catch (IOException exception) {
+            System.err.println("Nie udało się wczytać planszy: "
+                    + exception.getMessage());
+        }
     }
 
     // Aplikacja z czegoś tam się składa, tzn. klasa App ma - zdefiniowane jako
@@ -93,23 +134,98 @@ public class App {
     private Options options;
     private Model model;
     private View view;
+    private boolean cycleReported;
+    private BufferedWriter statistics;
 
     /**
      * Konstruktor obiektów jakie są składnikami aplikacji, to jest tych z
      * których aplikacja jest (będzie po wywołaniu konstruktora) złożona.
      *
      * @param args parametry wywołania programu, takie jak w main()
+     * @throws IOException gdy nie udało się wczytać planszy z pliku
      */
-    App(String[] args) {
+    App(String[] args) throws IOException {
         options = new Options(args);
+        if (options.ensemble > 0) {
+
+            // Zespół plansz (patrz Ensemble) nie potrzebuje modelu z jedną
+            // planszą ani widoku.
+            //
+            return;
+        }
         model = new Model(options);
-        view = new View(model);
+        try {
+
+            // Tryb wsadowy nic nie rysuje - a plansza może być zbyt duża, aby
+            // narysować ją w całości (patrz View.MAX_CHARACTERS).
+            //
+            if (!options.swing && !options.headless) {
+                try {
+                    view = new View(model, options);
+                } catch (IllegalArgumentException exception) {
+
+                    // Okno jest za duże - to błąd w opcjach, a nie
+                    // w programie, więc wystarczy komunikat. Bez widoku nie
+                    // ma czego uruchamiać (patrz run).
+                    //
+                    System.err.println(exception.getMessage());
+                    model.close();
+                    model = null;
+                    return;
+                }
+            }
+            if (options.statistics != null) {
+                statistics = Files.newBufferedWriter(options.statistics,
+                        StandardCharsets.UTF_8);
+                writeStatistics();
+            }
+        } catch (IOException | RuntimeException exception) {
+            model.close();
+            throw exception;
+        }
     }
 
     /**
      * Metoda dokonująca rozruchu działania całej aplikacji.
      */
     private void run() {
+        if (model == null && options.ensemble == 0) {
+            return;
+        }
+        try {
+            if (options.ensemble > 0) {
+                runEnsemble();
+            } else if (options.headless) {
+                runHeadless();
+            } else if (options.swing) {
+                runSwing();
+            } else if (options.pipeline > 0) {
+                runPipelined();
+            } else {
+                runInteractive();
+            }
+        } finally {
+
+            // Np. silnik rozproszony zatrzymuje tu swoje procesy robocze.
+            //
+            if (model != null) {
+                model.close();
+            }
+        }
+        if (statistics != null) {
+            try {
+                statistics.close();
+            } catch (IOException exception) {
+                System.err.println("Nie udało się zapisać statystyk: "
+                        + exception.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Ewolucja z rysowaniem planszy co options.step pokoleń.
+     */
+    private void runInteractive() {
 
         // Model już mamy i ten model jest zupełnie ok, ponieważ konstruktor
         // obiektu model zadziałał i dostarczył kompletny model (więc taki który
@@ -130,14 +246,275 @@ public class App {
         // nie jest potrzebny. A w zasadzie za prawie-kontroler służy właśnie
         // obiekt klasy app.
         //
-        // Pętla for poniżej jest paskudna - wbite na sztywno 10 i ogólnie
-        // powinna być zastąpiona czymś innym. Ale wystarcza na początek.
+        // Pętla for poniżej liczy options.generations pokoleń (domyślnie 10)
+        // i rysuje planszę co options.step pokoleń. Ostatni krok może być
+        // krótszy, jeżeli generations nie dzieli się przez step.
         //
-        for (int i = 0; i < 10; i++) {
-            model.evolve();
+        // Gdy plansza osiągnęła stan ustalony (wykryty przy opcji
+        // --detect-cycles), to dalsze rysowanie jej nic nowego nie pokaże
+        // - kończymy wcześniej.
+        //
+        for (long done = 0; done < options.generations; ) {
+            long steps = Math.min(options.step, options.generations - done);
+            long previous = model.getGeneration();
+            evolve(steps);
+            done += steps;
             view.paint();
+            checkpoint(previous);
+            if (reportCycle() && model.getCyclePeriod() == 1) {
+                break;
+            }
         }
 
     }
 
+    /**
+     * Ewolucja z rysowaniem w okienku (--swing). Ewolucję liczy ten wątek,
+     * a rysuje wątek Swinga (patrz SwingView), więc rysowanie nie spowalnia
+     * liczenia - pokolenia, których nie zdąży narysować, są pomijane. Ostatnie
+     * pokolenie jest zawsze narysowane i zostaje w okienku aż do jego
+     * zamknięcia.
+     */
+    private void runSwing() {
+        SwingView window = new SwingView(model);
+        window.show();
+        window.paint();
+        for (long done = 0; done < options.generations && !window.isClosed();) {
+            long steps = Math.min(options.step, options.generations - done);
+            long previous = model.getGeneration();
+            evolve(steps);
+            done += steps;
+            window.paint();
+            checkpoint(previous);
+            if (reportCycle() && model.getCyclePeriod() == 1) {
+                break;
+            }
+        }
+        try {
+            window.paintAndWait();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Ewolucja z rysowaniem na konsoli w osobnym wątku (--pipeline), patrz
+     * Pipeline. Ten wątek liczy pokolenia i przekazuje ich kopie do kolejki,
+     * a tamten je rysuje i robi zapisy kontrolne - w tym samym czasie, gdy tu
+     * liczone są już następne pokolenia.
+     */
+    private void runPipelined() {
+        long[] stored = {model.getGeneration()};
+        try (Pipeline pipeline = new Pipeline(options.pipeline, view::paint,
+                generation -> {
+                    if (isCheckpointDue(stored[0], generation.number)) {
+                        save(generation, generation.number);
+                    }
+                    stored[0] = generation.number;
+                })) {
+            pipeline.put(model, model.getGeneration(), false);
+            for (long done = 0; done < options.generations; ) {
+                long steps = Math.min(options.step, options.generations - done);
+                long previous = model.getGeneration();
+                evolve(steps);
+                done += steps;
+                pipeline.put(model, model.getGeneration(),
+                        isCheckpointDue(previous, model.getGeneration()));
+                if (reportCycle() && model.getCyclePeriod() == 1) {
+                    break;
+                }
+            }
+            long dropped = pipeline.finish(model, model.getGeneration());
+            if (dropped > 0) {
+                System.err.println("Rysowanie nie nadążało - pominięto "
+                        + dropped + " pokoleń.");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Zespół wielu losowych plansz (--ensemble=n): statystyki kolejnych
+     * pokoleń, wszystkich plansz razem, trafiają do pliku z opcji
+     * --statistics albo na standardowe wyjście, po jednym wierszu JSON na
+     * pokolenie.
+     */
+    private void runEnsemble() {
+        Ensemble.Summary summary = new Ensemble(options).run();
+
+        // Wiersze piszemy od razu, a nie składamy najpierw całego tekstu
+        // - przy wielu pokoleniach byłby dużo większy niż same sumy.
+        //
+        try {
+            Writer out = options.statistics != null
+                    ? Files.newBufferedWriter(options.statistics,
+                            StandardCharsets.UTF_8)
+                    : new BufferedWriter(new OutputStreamWriter(System.out));
+            try {
+                for (int generation = 0; generation < summary.size();
+                        generation++) {
+                    out.write(Report.of(generation, summary).toJson());
+                    out.write(System.lineSeparator());
+                }
+            } finally {
+                if (options.statistics != null) {
+                    out.close();
+                } else {
+                    out.flush();
+                }
+            }
+        } catch (IOException exception) {
+            System.err.println("Nie udało się zapisać statystyk: "
+                    + exception.getMessage());
+        }
+    }
+
+    /**
+     * Tryb wsadowy (--headless): ewolucja bez rysowania, z pomiarem czasu.
+     *
+     * Najpierw liczymy options.warmup pokoleń "na rozgrzewkę" - w tym czasie
+     * kompilator JIT tłumaczy najczęściej wykonywany kod na kod maszynowy - a
+     * dopiero potem mierzymy czas liczenia options.generations pokoleń.
+     * Wynik trafia do raportu (patrz klasa Report).
+     */
+    private void runHeadless() {
+        evolveHeadless(options.warmup);
+        long start = System.nanoTime();
+        evolveHeadless(options.generations);
+        long nanoseconds = System.nanoTime() - start;
+
+        try {
+            Report.of(options, model, options.generations, nanoseconds)
+                    .write(options.report);
+        } catch (IOException exception) {
+            System.err.println("Nie udało się zapisać raportu: "
+                    + exception.getMessage());
+        }
+    }
+
+    /**
+     * Liczy podaną liczbę pokoleń możliwie dużymi krokami - przerywając je
+     * tylko tam, gdzie wypada zapis kontrolny.
+     */
+    private void evolveHeadless(long generations) {
+        while (generations > 0) {
+            long steps = generations;
+            if (options.checkpoint != null && options.checkpointEvery > 0) {
+                long every = options.checkpointEvery;
+                steps = Math.min(steps, every - model.getGeneration() % every);
+            }
+            if (model.getCyclePeriod() == 1) {
+
+                // Stan ustalony - plansza się już nie zmienia, więc wszystkie
+                // zapisy kontrolne byłyby takie same; wystarczy ostatni.
+                //
+                steps = generations;
+            }
+            long previous = model.getGeneration();
+            evolve(steps);
+            generations -= steps;
+            checkpoint(previous);
+        }
+        reportCycle();
+    }
+
+    /**
+     * Liczy podaną liczbę pokoleń - przy opcji --statistics=plik pokolenie po
+     * pokoleniu, dopisując do pliku statystyki każdego z nich (w trybie
+     * wsadowym ich zapis wlicza się więc do mierzonego czasu).
+     */
+    private void evolve(long generations) {
+        if (statistics == null) {
+            model.evolve(generations);
+            return;
+        }
+        for (long i = 0; i < generations; i++) {
+            model.evolve();
+            writeStatistics();
+        }
+    }
+
+    /**
+     * Dopisuje statystyki bieżącego pokolenia jako jeden wiersz JSON (patrz
+     * Report). Nieudany zapis przerywa tylko zapisywanie statystyk.
+     */
+    private void writeStatistics() {
+        try {
+            statistics.write(Report.of(model.getGeneration(),
+                    model.getStatistics()).toJson());
+            statistics.newLine();
+        } catch (IOException exception) {
+            System.err.println("Nie udało się zapisać statystyk: "
+                    + exception.getMessage());
+            statistics = null;
+        }
+    }
+
+    /**
+     * Raz, gdy tylko zostanie wykryty, wypisuje komunikat o cyklu (albo
+     * stanie ustalonym).
+     *
+     * @return true jeżeli cykl jest już znany
+     */
+    private boolean reportCycle() {
+        long period = model.getCyclePeriod();
+        if (period > 0 && !cycleReported) {
+            cycleReported = true;
+            if (period == 1) {
+                System.err.println("Od pokolenia " + model.getCycleStart()
+                        + " plansza się nie zmienia.");
+            } else {
+                System.err.println("Od pokolenia " + model.getCycleStart()
+                        + " plansza powtarza się co " + period + " pokoleń.");
+            }
+        }
+        return period > 0;
+    }
+
+    /**
+     * Zapis kontrolny planszy, jeżeli od poprzedniego kroku minęła kolejna
+     * wielokrotność checkpointEvery pokoleń. Nieudany zapis nie przerywa
+     * programu - kolejny zapis może się już udać.
+     *
+     * @param previous numer pokolenia przed ostatnim krokiem
+     */
+    private void checkpoint(long previous) {
+        if (isCheckpointDue(previous, model.getGeneration())) {
+            save(model, model.getGeneration());
+        }
+    }
+
+    /**
+     * Czy między dwoma pokoleniami wypada zapis kontrolny.
+     *
+     * @param previous numer wcześniejszego pokolenia
+     * @param current numer późniejszego pokolenia
+     * @return true jeżeli zapisy kontrolne są włączone i między previous
+     * a current (włącznie) jest wielokrotność checkpointEvery
+     */
+    private boolean isCheckpointDue(long previous, long current) {
+        if (options.checkpoint == null || options.checkpointEvery == 0) {
+            return false;
+        }
+        long every = options.checkpointEvery;
+        return current / every != previous / every;
+    }
+
+    /**
+     * Zapisuje planszę (model albo kopię pokolenia) do pliku zapisów
+     * kontrolnych.
+     *
+     * @param board plansza
+     * @param generation numer pokolenia
+     */
+    private void save(Board board, long generation) {
+        try {
+            Snapshot.save(options.checkpoint, board, generation);
+        } catch (IOException exception) {
+            System.err.println("Nie udało się zapisać planszy: "
+                    + exception.getMessage());
+        }
+    }
+
 }
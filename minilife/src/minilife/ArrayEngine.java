@@ -0,0 +1,301 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+/**
+ * Najprostszy silnik: plansza jest tablicą, po jednym bajcie na każdą komórkę.
+ *
+ * Nie jest to ani najszybsze, ani najoszczędniejsze rozwiązanie, ale za to
+ * bardzo łatwo zrozumieć jak działa - i dlatego jest to silnik domyślny oraz
+ * wzorzec, z którym porównujemy wyniki wszystkich pozostałych silników.
+ *
+ * Plansza jest otoczona ramką (ghost cells) o szerokości jednej komórki.
+ * Dzięki temu każda komórka planszy ma wszystkich czterech sąsiadów w tablicy
+ * i w pętli liczącej nowe pokolenie nie trzeba sprawdzać czy sąsiad leży na
+ * planszy. Co jest w ramce, zależy od wybranego brzegu (patrz Boundary).
+ *
+ * Komórka to bajt, a nie wartość boolean, bo ramka typu WALL nie jest ani
+ * zajęta, ani pusta. Tak jak w SwarEngine bit 0 mówi czy komórka jest
+ * zajęta, a bit 1 czy nie jest pusta: EMPTY to 0, FILLED to 3, a WALL to 2.
+ *
+ * Reguła nie jest wpisana na sztywno - to obiekt klasy Rule, a nowy stan
+ * komórki odczytujemy z jego tablicy dla kwadratu 3 na 3 komórki wokół niej.
+ * Dlatego ten silnik liczy każdą regułę, nie tylko regułę minilife.
+ *
+ * @author Sławomir Marczyński
+ */
+class ArrayEngine implements Engine {
+
+    private static final byte EMPTY = 0;
+    private static final byte FILLED = 3;
+    private static final byte WALL = 2;
+
+    private final int width;
+    private final int height;
+    private final Boundary boundary;
+    private final Rule rule;
+    private byte[][] board;
+    private byte[][] updated1;
+    private byte[][] updated2;
+
+    // Statystyki planszy zbierane w evolve, tak jak w BitboardEngine -
+    // dopiero gdy ktoś o nie zapyta i tylko dopóki nikt nie zmienia komórek.
+    //
+    private boolean counting;
+    private Statistics counted = new Statistics();
+
+    ArrayEngine(int width, int height) {
+        this(width, height, Boundary.WALL, Rule.MINILIFE);
+    }
+
+    ArrayEngine(int width, int height, Boundary boundary, Rule rule) {
+
+        this.width = width;
+        this.height = height;
+        this.boundary = boundary;
+        this.rule = rule;
+
+        // Dwie tablice tworzymy raz, tu w konstruktorze, i potem na zmianę
+        // jedna z nich jest planszą board, a druga miejscem na następne
+        // pokolenie. Dzięki temu evolve() niczego nie alokuje.
+        //
+        // Wiersz 0 i wiersz height + 1, a także kolumna 0 i kolumna width + 1
+        // to ramka - komórka (row, column) planszy leży więc w tablicy pod
+        // indeksami [row + 1][column + 1].
+        //
+        updated1 = new byte[height + 2][width + 2];
+        updated2 = new byte[height + 2][width + 2];
+        board = updated1;
+
+        // Teraz ciekawostka - tablica board jest wypełniona zerami, tj.
+        // wartościami EMPTY, bo tak Java inicjalizuje tablice liczb. Ramkę
+        // stałą (WALL albo DEAD) wpisujemy od razu w obie tablice i potem
+        // już się nie zmienia, bo evolve() pisze tylko wewnątrz ramki.
+        //
+        if (boundary == Boundary.WALL) {
+            fillConstantRing(updated1, WALL);
+            fillConstantRing(updated2, WALL);
+        }
+    }
+
+    private void fillConstantRing(byte[][] cells, byte value) {
+        for (int column = 0; column < width + 2; column++) {
+            cells[0][column] = value;
+            cells[height + 1][column] = value;
+        }
+        for (int row = 1; row <= height; row++) {
+            cells[row][0] = value;
+            cells[row][width + 1] = value;
+        }
+    }
+
+    /**
+     * Przepisuje do ramki komórki z przeciwległego brzegu planszy (TORUS)
+     * albo z tego samego brzegu (MIRROR). Najpierw kolumny, potem całe
+     * wiersze - dzięki temu także narożniki ramki są poprawne.
+     */
+    private void fillRing(byte[][] cells) {
+        int west = boundary.source(-1, width) + 1;
+        int east = boundary.source(width, width) + 1;
+        for (int row = 1; row <= height; row++) {
+            cells[row][0] = cells[row][west];
+            cells[row][width + 1] = cells[row][east];
+        }
+        int north = boundary.source(-1, height) + 1;
+        int south = boundary.source(height, height) + 1;
+        System.arraycopy(cells[north], 0, cells[0], 0, width + 2);
+        System.arraycopy(cells[south], 0, cells[height + 1], 0, width + 2);
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public boolean isFilledCell(int row, int column) {
+        return board[row + 1][column + 1] == FILLED;
+    }
+
+    @Override
+    public void setCell(int row, int column, boolean filled) {
+        board[row + 1][column + 1] = filled ? FILLED : EMPTY;
+        counting = false;
+    }
+
+    @Override
+    public Statistics statistics() {
+        if (!counting) {
+            counted = Engine.super.statistics();
+            counting = true;
+        }
+        return counted.copy();
+    }
+
+    /**
+     * Jeden krok w ewolucji automatu komórkowego.
+     */
+    @Override
+    public void evolve() {
+
+        /*
+         * W tablicy updated, tak samo dużej jak board, będziemy gromadzili
+         * nowy stan planszy bez naruszania tablicy board. Po aktualizacji
+         * - zastąpimy tablicę board tablicą updated.
+         *
+         * Nie tworzymy jej za każdym razem od nowa: mamy dwie tablice updated1
+         * i updated2, a board jest zawsze jedną z nich. Nowy stan wpisujemy do
+         * tej drugiej - jej dotychczasowa zawartość (pokolenie sprzed dwóch
+         * kroków) i tak jest już niepotrzebna.
+         *
+         * UWAGA, nie zadziała tu prawdłowo klonowanie tablicy
+         *
+         *      byte[][] updated = board.clone();
+         *
+         * ponieważ clone() jest płytką kopią i robi niezupełnie to co mogłoby
+         * się nam wydawać.
+         */
+        byte[][] updated = board == updated1 ? updated2 : updated1;
+
+        /*
+         * Ramka zmienna (TORUS, MIRROR) jest kopią brzegów planszy, więc
+         * trzeba ją uaktualnić raz na pokolenie - przed liczeniem.
+         */
+        if (!boundary.isConstant()) {
+            fillRing(board);
+        }
+
+        /*
+         * Przy ścianie (WALL) komórki z brzegu planszy mają sąsiadów, których
+         * nie ma - dla nich tablica reguły nie wystarcza.
+         */
+        boolean wall = boundary == Boundary.WALL;
+
+        if (counting) {
+            counted.startGeneration();
+        }
+        for (int row = 1; row <= height; row++) {
+            byte[] north = board[row - 1];
+            byte[] center = board[row];
+            byte[] south = board[row + 1];
+            byte[] target = updated[row];
+            boolean edgeRow = wall && (row == 1 || row == height);
+
+            // Kwadrat 3 na 3 (patrz Rule) budujemy kolumnami: przed każdą
+            // komórką dopisujemy nową kolumnę ze wschodu, a najstarsza
+            // kolumna "wypada" przy przesunięciu o 3 bity.
+            //
+            int cells = column(north, center, south, 0) << 3
+                    | column(north, center, south, 1) << 6;
+            for (int column = 1; column <= width; column++) {
+                cells = cells >>> 3
+                        | column(north, center, south, column + 1) << 6;
+
+                // Każda komórka tablicy updated jest zapisywana dokładnie raz.
+                //
+                boolean filled = edgeRow || (wall
+                        && (column == 1 || column == width))
+                        ? rule.next(cells, present(north, center, south,
+                                column))
+                        : rule.next(cells);
+                target[column] = filled ? FILLED : EMPTY;
+            }
+            if (counting) {
+                count(row - 1, center, target);
+            }
+        }
+        if (counting) {
+            counted.finishGeneration();
+        }
+
+        board = updated;
+    }
+
+    /**
+     * Dodaje do statystyk wiersz row, póki jeszcze jest w pamięci podręcznej.
+     */
+    private void count(int row, byte[] before, byte[] after) {
+        int births = 0;
+        int deaths = 0;
+        int filled = 0;
+        for (int column = 1; column <= width; column++) {
+            int now = after[column] & 1;
+            int was = before[column] & 1;
+            births += now & ~was;
+            deaths += was & ~now;
+            filled |= now;
+        }
+        counted.births += births;
+        counted.deaths += deaths;
+        if (filled != 0) {
+            int left = 1;
+            while (after[left] != FILLED) {
+                left++;
+            }
+            int right = width;
+            while (after[right] != FILLED) {
+                right--;
+            }
+            counted.add(row, left - 1, right - 1);
+        }
+    }
+
+    /**
+     * Trzy komórki jednej kolumny (z wierszy north, center i south) jako
+     * bity 0, 1 i 2 - bit ustawiony dla komórki zajętej.
+     */
+    private static int column(byte[] north, byte[] center, byte[] south,
+            int column) {
+        return (north[column] & 1) | (center[column] & 1) << 1
+                | (south[column] & 1) << 2;
+    }
+
+    /**
+     * Które komórki kwadratu 3 na 3 wokół komórki w kolumnie column leżą na
+     * planszy, tj. nie są ścianą. Bity są ułożone tak jak w Rule.
+     */
+    private static int present(byte[] north, byte[] center, byte[] south,
+            int column) {
+        return present(north[column - 1], center[column - 1],
+                south[column - 1])
+                | present(north[column], center[column], south[column]) << 3
+                | present(north[column + 1], center[column + 1],
+                        south[column + 1]) << 6;
+    }
+
+    /**
+     * Trzy komórki jednej kolumny jako bity 0, 1 i 2 - bit ustawiony dla
+     * komórki, która nie jest ścianą.
+     */
+    private static int present(byte north, byte center, byte south) {
+        return (north != WALL ? 1 : 0) | (center != WALL ? 2 : 0)
+                | (south != WALL ? 4 : 0);
+    }
+
+}
@@ -0,0 +1,348 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Powtarzalny pomiar szybkości silników: osobny program, uruchamiany np. tak
+ *
+ *      java -cp classes minilife.Benchmark --sizes=20,2048 --engines=swar
+ *
+ * Mierzymy wszystkie kombinacje rozmiaru planszy (--sizes, domyślnie od 20x20
+ * do 16384x16384), gęstości planszy początkowej (--densities: sparse - około
+ * 1% zajętych komórek, half - połowa, saturated - wszystkie) i silnika
+ * (--engines, domyślnie wszystkie; --threads=n dla silnika bitboard
+ * wielowątkowego, --block=k dla silnika bitboard liczącego k pokoleń naraz).
+ *
+ * Wynikiem każdego pomiaru jest jeden wiersz JSON (patrz klasa Report)
+ * o zawsze tych samych polach w tej samej kolejności, wypisany na
+ * standardowe wyjście albo dopisany do pliku --output=plik. Najważniejsze
+ * pola to nsPerCell (średni czas na komórkę i pokolenie, z odchyleniem
+ * standardowym nsPerCellError) oraz bytesPerGeneration i allocationRate
+ * (ile pamięci przydziela silnik). Pliki z różnych wersji programu można więc
+ * porównać zwykłym skryptem.
+ *
+ * Dlaczego nie JMH? Bo JMH wymaga Mavena albo Gradle'a i procesora adnotacji,
+ * a minilife kompiluje się samym javac. Robimy więc to, co w JMH
+ * najważniejsze:
+ *
+ * - każdy pomiar w osobnej maszynie JVM (--forks=1, domyślnie) - kompilator
+ * JIT optymalizuje kod pod silnik, który właśnie jest mierzony, a nie pod
+ * wszystkie mierzone wcześniej;
+ *
+ * - rozgrzewka (--warmup=ms) przed pomiarem, a potem kilka serii pomiarowych
+ * (--iterations=n po --time=ms), z których liczymy średnią i rozrzut;
+ *
+ * - plansza początkowa losowana zawsze z tym samym ziarnem, więc każde
+ * uruchomienie liczy dokładnie to samo.
+ *
+ * Pamięć przydzieloną przez wątek liczącego mierzy com.sun.management
+ * .ThreadMXBean. Nie obejmuje to wątków pomocniczych silnika wielowątkowego.
+ *
+ * @author Sławomir Marczyński
+ */
+class Benchmark {
+
+    static final String SPARSE = "sparse";
+    static final String HALF = "half";
+    static final String SATURATED = "saturated";
+
+    private static final long SEED = 20210101L;
+
+    private List<Integer> sizes = Arrays.asList(20, 256, 2048, 16384);
+    private List<String> densities = Arrays.asList(SPARSE, HALF, SATURATED);
+    private List<String> engines = Arrays.asList(Options.ENGINES);
+    private int threads = 1;
+    private int block = 1;
+    private int forks = 1;
+    private int warmupMillis = 1000;
+    private int iterations = 5;
+    private int iterationMillis = 500;
+    private Path output = null;
+
+    private final List<String> passedOptions = new ArrayList<>();
+
+    /**
+     * Punkt wejścia programu mierzącego szybkość silników.
+     *
+     * @param args opcje --sizes, --densities, --engines (listy rozdzielone
+     * przecinkami), --threads, --block, --forks, --warmup, --iterations,
+     * --time i --output, opisane w komentarzu klasy
+     */
+    public static void main(String[] args) {
+        try {
+            new Benchmark(args).run();
+        } catch (IllegalArgumentException exception) {
+            System.err.println(exception.getMessage());
+        } catch (IOException | InterruptedException exception) {
+            System.err.println("Pomiar przerwany: " + exception.getMessage());
+        }
+    }
+
+    private Benchmark(String[] args) {
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            String name = equals < 0 ? arg : arg.substring(0, equals);
+            String value = equals < 0 ? "" : arg.substring(equals + 1);
+            switch (name) {
+                case "--sizes":
+                    sizes = new ArrayList<>();
+                    for (String size : value.split(",")) {
+                        sizes.add(parseCount(arg, size));
+                    }
+                    break;
+                case "--densities":
+                    densities = Arrays.asList(value.split(","));
+                    break;
+                case "--engines":
+                    engines = Arrays.asList(value.split(","));
+                    break;
+                case "--threads":
+                    threads = parseCount(arg, value);
+                    break;
+                case "--block":
+                    block = parseCount(arg, value);
+                    break;
+                case "--forks":
+                    forks = value.equals("0") ? 0 : parseCount(arg, value);
+                    break;
+                case "--warmup":
+                    warmupMillis = parseCount(arg, value);
+                    break;
+                case "--iterations":
+                    iterations = parseCount(arg, value);
+                    break;
+                case "--time":
+                    iterationMillis = parseCount(arg, value);
+                    break;
+                case "--output":
+                    output = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Nieznana opcja: "
+                            + arg);
+            }
+
+            // Procesy potomne dostają te same opcje, poza listami, które
+            // zastępujemy jednym przypadkiem.
+            //
+            if (!name.equals("--sizes") && !name.equals("--densities")
+                    && !name.equals("--engines") && !name.equals("--forks")) {
+                passedOptions.add(arg);
+            }
+        }
+        for (String density : densities) {
+            if (!Arrays.asList(SPARSE, HALF, SATURATED).contains(density)) {
+                throw new IllegalArgumentException("Nieznana gęstość: "
+                        + density);
+            }
+        }
+    }
+
+    private static int parseCount(String arg, String value) {
+        try {
+            int count = Integer.parseUnsignedInt(value);
+            if (count > 0) {
+                return count;
+            }
+        } catch (NumberFormatException exception) {
+            // Komunikat o błędzie jest poniżej, wspólny dla obu przypadków.
+        }
+        throw new IllegalArgumentException("Zła wartość opcji: " + arg);
+    }
+
+    private void run() throws IOException, InterruptedException {
+        for (String engine : engines) {
+            for (int size : sizes) {
+                for (String density : densities) {
+                    if (forks > 0) {
+                        fork(engine, size, density);
+                    } else {
+                        measure(engine, size, density).write(output);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Uruchamia pomiar jednego przypadku w nowej maszynie JVM, z tymi samymi
+     * ustawieniami co bieżąca (classpath, opcje -Xmx itd.). Proces potomny
+     * pisze wynik sam - na to samo standardowe wyjście albo do tego samego
+     * pliku.
+     */
+    private void fork(String engine, int size, String density)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean()
+                .getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Benchmark.class.getName());
+        command.add("--forks=0");
+        command.add("--engines=" + engine);
+        command.add("--sizes=" + size);
+        command.add("--densities=" + density);
+        command.addAll(passedOptions);
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        if (process.waitFor() != 0) {
+            System.err.println("Pomiar nieudany: " + engine + " " + size
+                    + " " + density);
+        }
+    }
+
+    /**
+     * Mierzy jeden przypadek w bieżącej maszynie JVM.
+     */
+    private Report measure(String engineName, int size, String density)
+            throws IOException {
+        boolean bitboard = engineName.equals(Options.BITBOARD_ENGINE);
+        Options options = new Options(new String[]{
+            "--engine=" + engineName,
+            "--threads=" + (bitboard ? threads : 1),
+            "--block=" + (bitboard ? block : 1)});
+        try (Engine engine = Model.createEngine(options, size, size)) {
+            seed(engine, density);
+            double cells = (double) size * size;
+
+            // Rozgrzewka - przy okazji dowiadujemy się ile mniej więcej trwa
+            // jedno pokolenie, a więc ile pokoleń zmieści się w jednej serii.
+            // Pokolenia liczymy po options.block naraz, tak jak w pomiarze.
+            //
+            long warmupGenerations = 0;
+            long start = System.nanoTime();
+            long elapsed;
+            do {
+                engine.evolve(options.block);
+                warmupGenerations += options.block;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < warmupMillis * 1_000_000L);
+            long generations = Math.max(1, warmupGenerations * iterationMillis
+                    / warmupMillis / options.block) * options.block;
+
+            com.sun.management.ThreadMXBean threadBean = threadBean();
+            double[] nsPerCell = new double[iterations];
+            double bytes = 0;
+            double seconds = 0;
+            for (int i = 0; i < iterations; i++) {
+                long allocatedBefore = allocatedBytes(threadBean);
+                long before = System.nanoTime();
+                engine.evolve(generations);
+                long nanoseconds = System.nanoTime() - before;
+                bytes += allocatedBytes(threadBean) - allocatedBefore;
+                seconds += nanoseconds / 1e9;
+                nsPerCell[i] = nanoseconds / (cells * generations);
+            }
+
+            double mean = 0;
+            for (double value : nsPerCell) {
+                mean += value;
+            }
+            mean /= iterations;
+            double variance = 0;
+            for (double value : nsPerCell) {
+                variance += (value - mean) * (value - mean);
+            }
+            variance = iterations > 1 ? variance / (iterations - 1) : 0;
+
+            boolean measured = threadBean != null;
+            double total = (double) generations * iterations;
+            return new Report()
+                    .add("engine", engineName)
+                    .add("threads", options.threads)
+                    .add("block", options.block)
+                    .add("width", size)
+                    .add("height", size)
+                    .add("density", density)
+                    .add("generations", generations)
+                    .add("iterations", iterations)
+                    .add("nsPerCell", mean)
+                    .add("nsPerCellError", Math.sqrt(variance))
+                    .add("bytesPerGeneration",
+                            measured ? bytes / total : Double.NaN)
+                    .add("allocationRate",
+                            measured ? bytes / seconds : Double.NaN)
+                    .add("java", System.getProperty("java.vm.version"));
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean bean
+                    = (com.sun.management.ThreadMXBean) ManagementFactory
+                            .getThreadMXBean();
+            if (bean.isThreadAllocatedMemorySupported()) {
+                bean.setThreadAllocatedMemoryEnabled(true);
+                return bean;
+            }
+        }
+        return null;
+    }
+
+    private static long allocatedBytes(
+            com.sun.management.ThreadMXBean threadBean) {
+        return threadBean != null ? threadBean.getThreadAllocatedBytes(
+                Thread.currentThread().getId()) : 0;
+    }
+
+    /**
+     * Wypełnia planszę losowo, wiersz po wierszu przez writeRow. Gęstość
+     * około 1% dostajemy jako iloczyn bitowy siedmiu losowych liczb long
+     * (każdy bit jest jedynką z prawdopodobieństwem 1/128).
+     */
+    private static void seed(Engine engine, String density) {
+        Random random = new Random(SEED);
+        long[] words = new long[BitboardEngine.wordsPerRow(engine.width())];
+        for (int row = 0; row < engine.height(); row++) {
+            for (int i = 0; i < words.length; i++) {
+                switch (density) {
+                    case SATURATED:
+                        words[i] = -1L;
+                        break;
+                    case HALF:
+                        words[i] = random.nextLong();
+                        break;
+                    default:
+                        long word = -1L;
+                        for (int k = 0; k < 7; k++) {
+                            word &= random.nextLong();
+                        }
+                        words[i] = word;
+                }
+            }
+            engine.writeRow(row, words);
+        }
+    }
+}
@@ -0,0 +1,457 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.util.Arrays;
+
+/**
+ * Silnik, w którym każdy wiersz planszy to tablica liczb long, a każda liczba
+ * long przechowuje 64 sąsiednie komórki jako pojedyncze bity.
+ *
+ * Komórka w kolumnie column leży w słowie column / 64 na bicie column % 64.
+ * Dzięki temu jedna operacja bitowa (|, &amp;, ~, &lt;&lt;, &gt;&gt;&gt;)
+ * przetwarza od razu 64 komórki, a plansza zajmuje w pamięci ośmiokrotnie
+ * mniej miejsca niż tablica boolean[][].
+ *
+ * Reguła jest ta sama co w klasie ArrayEngine. Jeżeli n, s, w, e oznaczają
+ * sąsiadów (północ, południe, zachód, wschód), a c samą komórkę, to:
+ *
+ *      nowa = (c | n | s | w | e) &amp; ~(n &amp; s &amp; w &amp; e)
+ *
+ * z tą subtelnością, że przy brzegu WALL (patrz Boundary) sąsiad spoza
+ * planszy nie jest ani zajęty (przy zajmowaniu komórek), ani pusty (przy ich
+ * opróżnianiu). Dlatego dla brzegów planszy bierzemy osobno wiersz samych zer
+ * i wiersz samych jedynek. Przy pozostałych brzegach sąsiedni wiersz spoza
+ * planszy to wiersz zer (DEAD) albo po prostu któryś wiersz planszy (TORUS,
+ * MIRROR), a sąsiednie kolumny to pojedyncze bity z brzegów wiersza.
+ *
+ * @author Sławomir Marczyński
+ */
+class BitboardEngine implements Engine {
+
+    final int width;
+    final int height;
+    final int wordsPerRow;
+    final Boundary boundary;
+
+    /*
+     * Dwie plansze: board to bieżące pokolenie, updated to miejsce na
+     * następne. Po obliczeniu nowego pokolenia po prostu zamieniamy je
+     * miejscami - nic nie trzeba alokować ani kopiować.
+     */
+    long[][] board;
+    long[][] updated;
+
+    /*
+     * Wiersze "spoza planszy": zera dla zajmowania, jedynki dla opróżniania.
+     */
+    final long[] zeros;
+    final long[] ones;
+
+    /*
+     * Skrót planszy board (patrz Engine.hash), uaktualniany przy każdej
+     * zmianie - tylko o słowa, które się zmieniły. Uaktualnianie też kosztuje,
+     * więc zaczyna się dopiero po pierwszym wywołaniu hash(); do tego czasu
+     * hashing jest false, a hash nie ma znaczenia.
+     */
+    boolean hashing;
+    long hash;
+
+    /*
+     * Statystyki planszy board (patrz Statistics), zbierane w evolve tak
+     * samo leniwie jak skrót: dopiero po pierwszym wywołaniu statistics().
+     * Zmiana pojedynczych komórek wyłącza ich zbieranie - następne
+     * wywołanie statistics() policzy je od nowa.
+     */
+    boolean counting;
+    Statistics counted = new Statistics();
+
+    BitboardEngine(int width, int height) {
+        this(width, height, Boundary.WALL);
+    }
+
+    BitboardEngine(int width, int height, Boundary boundary) {
+        this.width = width;
+        this.height = height;
+        this.boundary = boundary;
+        this.wordsPerRow = wordsPerRow(width);
+        board = new long[height][wordsPerRow];
+        updated = new long[height][wordsPerRow];
+        zeros = new long[wordsPerRow];
+        ones = new long[wordsPerRow];
+        Arrays.fill(ones, -1L);
+    }
+
+    /**
+     * Ile słów long potrzeba na wiersz o podanej szerokości.
+     *
+     * @param width szerokość planszy
+     * @return liczba słów long w jednym wierszu
+     */
+    static int wordsPerRow(int width) {
+        return (width + 63) >>> 6;
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public boolean isFilledCell(int row, int column) {
+        return (board[row][column >>> 6] & (1L << column)) != 0;
+    }
+
+    @Override
+    public long countFilled(int top, int left, int bottom, int right) {
+        long count = 0;
+        for (int row = top; row < bottom; row++) {
+            count += countBits(board[row], left, right);
+        }
+        return count;
+    }
+
+    /**
+     * Liczy zapalone bity wiersza od left do right (bez right) - pełne słowa
+     * jednym Long.bitCount, a skrajne słowa z maską.
+     *
+     * @param words wiersz jako bity upakowane w liczbach long
+     * @param left pierwsza kolumna
+     * @param right kolumna za ostatnią
+     * @return liczba zapalonych bitów
+     */
+    static long countBits(long[] words, int left, int right) {
+        if (left >= right) {
+            return 0;
+        }
+        int first = left >>> 6;
+        int last = (right - 1) >>> 6;
+        long firstMask = -1L << left;
+        long lastMask = -1L >>> (63 - ((right - 1) & 63));
+        if (first == last) {
+            return Long.bitCount(words[first] & firstMask & lastMask);
+        }
+        long count = Long.bitCount(words[first] & firstMask)
+                + Long.bitCount(words[last] & lastMask);
+        for (int k = first + 1; k < last; k++) {
+            count += Long.bitCount(words[k]);
+        }
+        return count;
+    }
+
+    @Override
+    public void setCell(int row, int column, boolean filled) {
+        int k = column >>> 6;
+        long before = board[row][k];
+        if (filled) {
+            board[row][k] |= 1L << column;
+        } else {
+            board[row][k] &= ~(1L << column);
+        }
+        if (hashing) {
+            hash ^= Engine.hashWord(row, k, before)
+                    ^ Engine.hashWord(row, k, board[row][k]);
+        }
+        counting = false;
+    }
+
+    @Override
+    public void readRow(int row, long[] words) {
+        System.arraycopy(board[row], 0, words, 0, wordsPerRow);
+    }
+
+    @Override
+    public void writeRow(int row, long[] words) {
+        if (hashing) {
+            hash ^= hashDelta(row, board[row], zeros, 0, wordsPerRow);
+        }
+        System.arraycopy(words, 0, board[row], 0, wordsPerRow);
+        board[row][wordsPerRow - 1] &= -1L >>> (-width & 63);
+        if (hashing) {
+            hash ^= hashDelta(row, zeros, board[row], 0, wordsPerRow);
+        }
+        counting = false;
+    }
+
+    @Override
+    public void mergeRow(int row, long[] words) {
+        long[] merged = new long[wordsPerRow];
+        readRow(row, merged);
+        for (int k = 0; k < wordsPerRow; k++) {
+            merged[k] |= words[k];
+        }
+        writeRow(row, merged);
+    }
+
+    @Override
+    public long hash() {
+        if (!hashing) {
+            hash = 0;
+            for (int row = 0; row < height; row++) {
+                hash ^= hashDelta(row, zeros, board[row], 0, wordsPerRow);
+            }
+            hashing = true;
+        }
+        return hash;
+    }
+
+    @Override
+    public Statistics statistics() {
+        if (!counting) {
+            counted = Engine.super.statistics();
+            counting = true;
+        }
+        return counted.copy();
+    }
+
+    @Override
+    public void evolve() {
+        if (counting) {
+            counted.startGeneration();
+        }
+        for (int row = 0; row < height; row++) {
+            evolveRow(row, board, updated[row]);
+            if (hashing) {
+                hash ^= hashDelta(row, board[row], updated[row], 0,
+                        wordsPerRow);
+            }
+            if (counting) {
+                counted.addRow(row, board[row], updated[row], 0,
+                        wordsPerRow);
+            }
+        }
+        if (counting) {
+            counted.finishGeneration();
+        }
+        long[][] swap = board;
+        board = updated;
+        updated = swap;
+    }
+
+    /**
+     * Jeden krok ewolucji, gdy ta plansza jest tylko poziomym pasem większej
+     * planszy (patrz DistributedEngine). Skrót pasa (hash) i statystyki nie
+     * są przy tym uaktualniane - liczy je od nowa dopiero następne wywołanie
+     * hash() albo statistics().
+     *
+     * @param northHalo ostatni wiersz pasa powyżej albo null, jeżeli pas
+     * leży na górnym brzegu planszy
+     * @param southHalo pierwszy wiersz pasa poniżej albo null, jeżeli pas
+     * leży na dolnym brzegu planszy
+     */
+    final void evolve(long[] northHalo, long[] southHalo) {
+        for (int row = 0; row < height; row++) {
+            long[] north = row == 0 && northHalo != null ? northHalo
+                    : northOf(board, row);
+            long[] south = row == height - 1 && southHalo != null ? southHalo
+                    : southOf(board, row);
+            evolveRow(north, board[row], south, updated[row]);
+        }
+        long[][] swap = board;
+        board = updated;
+        updated = swap;
+        hashing = false;
+        counting = false;
+    }
+
+    /**
+     * Oblicza następne pokolenie jednego wiersza.
+     *
+     * @param row numer wiersza
+     * @param source plansza z bieżącym pokoleniem
+     * @param target tablica, do której trafi nowy wiersz
+     */
+    final void evolveRow(int row, long[][] source, long[] target) {
+        evolveRow(northOf(source, row), source[row], southOf(source, row),
+                target);
+    }
+
+    /**
+     * Wiersz leżący nad wierszem row - także gdy row jest pierwszym wierszem
+     * planszy, zależnie od brzegu planszy.
+     *
+     * @param source plansza
+     * @param row numer wiersza
+     * @return wiersz powyżej albo null dla brzegu WALL
+     */
+    final long[] northOf(long[][] source, int row) {
+        if (row > 0) {
+            return source[row - 1];
+        }
+        return edgeRow(source, -1);
+    }
+
+    /**
+     * Wiersz leżący pod wierszem row, patrz northOf.
+     *
+     * @param source plansza
+     * @param row numer wiersza
+     * @return wiersz poniżej albo null dla brzegu WALL
+     */
+    final long[] southOf(long[][] source, int row) {
+        if (row < height - 1) {
+            return source[row + 1];
+        }
+        return edgeRow(source, height);
+    }
+
+    private long[] edgeRow(long[][] source, int row) {
+        switch (boundary) {
+            case DEAD:
+                return zeros;
+            case TORUS:
+            case MIRROR:
+                return source[boundary.source(row, height)];
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Oblicza następne pokolenie jednego wiersza mając dane wiersze sąsiednie.
+     *
+     * @param north wiersz powyżej albo null jeżeli to brzeg planszy
+     * @param center wiersz, którego nowy stan liczymy
+     * @param south wiersz poniżej albo null jeżeli to brzeg planszy
+     * @param target tablica, do której trafi nowy wiersz
+     */
+    final void evolveRow(long[] north, long[] center, long[] south,
+            long[] target) {
+        evolveWords(north, center, south, target, 0, wordsPerRow);
+    }
+
+    /**
+     * O ile zmienia się skrót planszy (patrz Engine.hash), gdy słowa od from
+     * (włącznie) do to (wyłącznie) wiersza row zmieniają się z before na
+     * after.
+     *
+     * @param row numer wiersza
+     * @param before wiersz przed zmianą
+     * @param after wiersz po zmianie
+     * @param from numer pierwszego słowa
+     * @param to numer słowa za ostatnim słowem
+     * @return wartość, którą trzeba "dodać" do skrótu operacją XOR
+     */
+    final long hashDelta(int row, long[] before, long[] after, int from,
+            int to) {
+        long delta = 0;
+        for (int k = from; k < to; k++) {
+            if (before[k] != after[k]) {
+                delta ^= Engine.hashWord(row, k, before[k])
+                        ^ Engine.hashWord(row, k, after[k]);
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * Oblicza następne pokolenie części wiersza, tj. słów od from (włącznie)
+     * do to (wyłącznie). Pozostałe słowa tablicy target nie są zmieniane.
+     *
+     * @param north wiersz powyżej albo null jeżeli to brzeg planszy
+     * @param center wiersz, którego nowy stan liczymy
+     * @param south wiersz poniżej albo null jeżeli to brzeg planszy
+     * @param target tablica, do której trafi nowy wiersz
+     * @param from numer pierwszego liczonego słowa
+     * @param to numer słowa za ostatnim liczonym słowem
+     * @return true jeżeli choć jedna komórka zmieniła się względem center
+     */
+    final boolean evolveWords(long[] north, long[] center, long[] south,
+            long[] target, int from, int to) {
+
+        long[] northFill = north != null ? north : zeros;
+        long[] northKeep = north != null ? north : ones;
+        long[] southFill = south != null ? south : zeros;
+        long[] southKeep = south != null ? south : ones;
+
+        int last = wordsPerRow - 1;
+        long lastColumn = 1L << (width - 1);
+        long lastMask = -1L >>> (-width & 63);
+
+        // Sąsiedzi komórek z lewego i prawego brzegu wiersza, jako bit 0
+        // (zachód) i bit kolumny width - 1 (wschód): osobno dla zajmowania
+        // (fill) i dla opróżniania (keep).
+        //
+        long westFill = 0;
+        long westKeep = 0;
+        long eastFill = 0;
+        long eastKeep = 0;
+        switch (boundary) {
+            case WALL:
+                westKeep = 1L;
+                eastKeep = lastColumn;
+                break;
+            case TORUS:
+                westFill = (center[last] & lastColumn) != 0 ? 1L : 0;
+                eastFill = (center[0] & 1L) != 0 ? lastColumn : 0;
+                break;
+            case MIRROR:
+                westFill = center[0] & 1L;
+                eastFill = center[last] & lastColumn;
+                break;
+            default:
+                break;
+        }
+        if (boundary != Boundary.WALL) {
+            westKeep = westFill;
+            eastKeep = eastFill;
+        }
+
+        // Przesunięcie o jeden bit w lewo daje każdej komórce jej sąsiada
+        // z zachodu, ale najstarszy bit poprzedniego słowa musi "przejść" do
+        // najmłodszego bitu bieżącego słowa - stąd zmienna carry.
+        //
+        long carry = from > 0 ? center[from - 1] >>> 63 : westFill;
+        long c = center[from];
+        long changes = 0;
+        for (int k = from; k < to; k++) {
+            long next = k < last ? center[k + 1] : 0;
+            long w = (c << 1) | carry;
+            long e = (c >>> 1) | (next << 63);
+            if (k == last) {
+                e |= eastFill;
+            }
+            long wKeep = k == 0 ? w | westKeep : w;
+            long eKeep = k == last ? e | eastKeep : e;
+
+            long fill = c | northFill[k] | southFill[k] | w | e;
+            long keep = northKeep[k] & southKeep[k] & wKeep & eKeep;
+            long value = fill & ~keep;
+            if (k == last) {
+                value &= lastMask;
+            }
+            target[k] = value;
+            changes |= value ^ c;
+
+            carry = c >>> 63;
+            c = next;
+        }
+        return changes != 0;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+/**
+ * Odmiana silnika BitboardEngine liczącą wiele pokoleń naraz w małych
+ * fragmentach planszy (temporal blocking).
+ *
+ * Zwykły silnik w każdym pokoleniu przegląda całą planszę. Jeżeli plansza nie
+ * mieści się w pamięci podręcznej procesora (cache), to każde pokolenie
+ * oznacza przeczytanie całej planszy z pamięci RAM i zapisanie jej z powrotem
+ * - i to właśnie, a nie same obliczenia, ogranicza szybkość.
+ *
+ * Tutaj plansza jest dzielona na poziome pasy tak wąskie, że pas razem
+ * z pomocniczymi tablicami mieści się w cache. Każdy pas przesuwamy od razu
+ * o depth pokoleń i dopiero potem bierzemy się za następny pas - plansza jest
+ * więc czytana z pamięci RAM raz na depth pokoleń, a nie w każdym pokoleniu.
+ *
+ * Haczyk w tym, że wiersz po depth pokoleniach zależy od wierszy odległych
+ * o depth w górę i w dół. Pas jest więc liczony razem z zakładką (halo)
+ * o szerokości depth wierszy z każdej strony; w każdym pokoleniu liczymy
+ * o jeden wiersz zakładki mniej, bo skrajne wiersze nie mają już poprawnych
+ * sąsiadów. Zakładki sąsiednich pasów są liczone dwukrotnie - to cena za
+ * mniej odczytów z pamięci, tym mniejsza im szerszy pas.
+ *
+ * Przy brzegu WALL i DEAD zakładka kończy się na brzegu planszy, a przy TORUS
+ * i MIRROR składa się z wierszy z drugiego końca planszy albo z odbicia
+ * - plansza rozszerzona w ten sposób ewoluuje dokładnie tak jak plansza
+ * z takim brzegiem. Wynik jest zawsze identyczny, bit w bit, z depth
+ * wywołaniami evolve() silnika BitboardEngine.
+ *
+ * @author Sławomir Marczyński
+ */
+class BlockedEngine extends BitboardEngine {
+
+    // Ile bajtów może zająć pas razem z zakładkami i dwiema tablicami
+    // pomocniczymi - z grubsza rozmiar pamięci podręcznej L2.
+    //
+    static final int CACHE_BYTES = 256 * 1024;
+
+    private final int depth;
+    private final int rowsPerBand;
+
+    /*
+     * Dwie tablice wierszy pośrednich pokoleń pasa (na zmianę: poprzednie
+     * i liczone), każda na rowsPerBand + 2 * depth wierszy, oraz tablica
+     * odwołań do wierszy planszy board tworzących pas z zakładkami.
+     */
+    private final long[][] scratch1;
+    private final long[][] scratch2;
+    private final long[][] window;
+
+    BlockedEngine(int width, int height, int depth, Boundary boundary) {
+        this(width, height, depth, boundary, defaultRowsPerBand(width, depth));
+    }
+
+    BlockedEngine(int width, int height, int depth, Boundary boundary,
+            int rowsPerBand) {
+        super(width, height, boundary);
+        this.depth = depth;
+        this.rowsPerBand = rowsPerBand;
+        scratch1 = new long[rowsPerBand + 2 * depth][wordsPerRow];
+        scratch2 = new long[rowsPerBand + 2 * depth][wordsPerRow];
+        window = new long[rowsPerBand + 2 * depth][];
+    }
+
+    private static int defaultRowsPerBand(int width, int depth) {
+        int rowBytes = wordsPerRow(width) * Long.BYTES;
+        int windowRows = CACHE_BYTES / (3 * rowBytes);
+        return Math.max(2 * depth, windowRows - 2 * depth);
+    }
+
+    @Override
+    public void evolve(long generations) {
+        while (generations > 0) {
+            int steps = (int) Math.min(depth, generations);
+            if (counting) {
+                counted.startGeneration();
+            }
+            for (int from = 0; from < height; from += rowsPerBand) {
+                evolveBand(from, Math.min(from + rowsPerBand, height), steps);
+            }
+            long[][] swap = board;
+            board = updated;
+            updated = swap;
+            generations -= steps;
+
+            // Z porównania z planszą sprzed steps pokoleń nie wynika ile
+            // komórek zmieniło się w ostatnim z nich.
+            //
+            if (counting) {
+                counted.finishGeneration();
+                if (steps > 1) {
+                    counted.forgetChanges();
+                }
+            }
+        }
+    }
+
+    /**
+     * Przesuwa wiersze od from (włącznie) do to (wyłącznie) o steps pokoleń,
+     * wpisując wynik do planszy updated.
+     */
+    private void evolveBand(int from, int to, int steps) {
+
+        // Wiersze pasa z zakładkami: od lo do hi (wyłącznie). Przy brzegu
+        // WALL i DEAD zakładka nie wychodzi poza planszę, a brzeg pasa leżący
+        // na brzegu planszy nie "kurczy się" z pokolenia na pokolenie.
+        //
+        boolean extended = boundary == Boundary.TORUS
+                || boundary == Boundary.MIRROR;
+        int lo = extended ? from - steps : Math.max(from - steps, 0);
+        int hi = extended ? to + steps : Math.min(to + steps, height);
+        boolean fixedTop = !extended && lo == 0;
+        boolean fixedBottom = !extended && hi == height;
+
+        // Pokolenie zerowe to po prostu wiersze planszy board, bez kopiowania.
+        //
+        long[][] previous = window;
+        for (int row = lo; row < hi; row++) {
+            previous[row - lo] = board[boardRow(row)];
+        }
+
+        long[][] current = scratch1;
+        for (int step = 1; step <= steps; step++) {
+            int first = fixedTop ? lo : lo + step;
+            int last = fixedBottom ? hi : hi - step;
+            if (step == steps) {
+                first = from;
+                last = to;
+            }
+            for (int row = first; row < last; row++) {
+                long[] center = previous[row - lo];
+                long[] north = row > lo ? previous[row - lo - 1]
+                        : northOf(board, row);
+                long[] south = row < hi - 1 ? previous[row - lo + 1]
+                        : southOf(board, row);
+                long[] target = step == steps ? updated[row]
+                        : current[row - lo];
+                evolveRow(north, center, south, target);
+            }
+            previous = current;
+            current = current == scratch1 ? scratch2 : scratch1;
+        }
+        if (hashing) {
+            for (int row = from; row < to; row++) {
+                hash ^= hashDelta(row, board[row], updated[row], 0,
+                        wordsPerRow);
+            }
+        }
+        if (counting) {
+            for (int row = from; row < to; row++) {
+                counted.addRow(row, board[row], updated[row], 0,
+                        wordsPerRow);
+            }
+        }
+    }
+
+    /**
+     * Wiersz planszy widoczny w miejscu wiersza row rozszerzonej planszy:
+     * przy TORUS zawinięty, przy MIRROR odbity (row = -1 to wiersz 0,
+     * row = -2 to wiersz 1 itd.).
+     */
+    private int boardRow(int row) {
+        if (boundary == Boundary.TORUS) {
+            return Math.floorMod(row, height);
+        }
+        if (boundary == Boundary.MIRROR) {
+            int mirrored = Math.floorMod(row, 2 * height);
+            return mirrored < height ? mirrored : 2 * height - 1 - mirrored;
+        }
+        return row;
+    }
+}
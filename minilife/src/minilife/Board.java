@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.util.Arrays;
+
+/**
+ * Plansza, którą można tylko oglądać: jej rozmiary i zawartość komórek.
+ *
+ * Tyle wystarcza widokowi, żeby ją narysować, i zapisowi do pliku (patrz
+ * Snapshot). Planszą jest każdy silnik, ale też model i niezmienna kopia
+ * jednego pokolenia (patrz Generation) - dzięki temu rysować i zapisywać
+ * można także w innym wątku niż ten, który liczy kolejne pokolenia.
+ *
+ * @author Sławomir Marczyński
+ */
+interface Board {
+
+    /**
+     * Szerokość planszy.
+     *
+     * @return liczba kolumn
+     */
+    int width();
+
+    /**
+     * Wysokość planszy.
+     *
+     * @return liczba wierszy
+     */
+    int height();
+
+    /**
+     * Sprawdza czy komórka jest zajęta.
+     *
+     * @param row numer wiersza
+     * @param column numer kolumny
+     * @return true jeżeli komórka jest zajęta, false jeżeli jest pusta
+     */
+    boolean isFilledCell(int row, int column);
+
+    /**
+     * Odczytuje cały wiersz planszy jako bity upakowane w liczbach long:
+     * komórka w kolumnie column to bit column % 64 słowa column / 64.
+     *
+     * @param row numer wiersza
+     * @param words tablica na co najmniej (width() + 63) / 64 słów
+     */
+    default void readRow(int row, long[] words) {
+        int width = width();
+        Arrays.fill(words, 0, (width + 63) >>> 6, 0L);
+        for (int column = 0; column < width; column++) {
+            if (isFilledCell(row, column)) {
+                words[column >>> 6] |= 1L << column;
+            }
+        }
+    }
+
+    /**
+     * Liczy zajęte komórki w prostokącie - wiersze od top do bottom i kolumny
+     * od left do right, bez bottom i right. Ta wersja sprawdza każdą komórkę;
+     * plansze, które potrafią liczyć szybciej (np. słowami long albo
+     * z gotowych liczników dla większych obszarów), powinny ją przesłonić.
+     *
+     * @param top pierwszy wiersz
+     * @param left pierwsza kolumna
+     * @param bottom wiersz za ostatnim
+     * @param right kolumna za ostatnią
+     * @return liczba zajętych komórek
+     */
+    default long countFilled(int top, int left, int bottom, int right) {
+        long count = 0;
+        for (int row = top; row < bottom; row++) {
+            for (int column = left; column < right; column++) {
+                if (isFilledCell(row, column)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
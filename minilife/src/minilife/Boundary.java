@@ -0,0 +1,80 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+/**
+ * Co jest za brzegiem planszy, tj. jakich sąsiadów mają komórki brzegowe.
+ *
+ * @author Sławomir Marczyński
+ */
+enum Boundary {
+
+    /**
+     * Ściana: sąsiad spoza planszy nie jest ani zajęty, ani pusty - nie
+     * zajmuje komórki, ale też nie przeszkadza w jej opróżnieniu. Tak było
+     * od początku i tak jest domyślnie.
+     */
+    WALL,
+    /**
+     * Martwe otoczenie: sąsiad spoza planszy jest zawsze pusty.
+     */
+    DEAD,
+    /**
+     * Torus: plansza jest zawinięta, sąsiadem komórki z lewego brzegu jest
+     * komórka z prawego brzegu, a sąsiadem komórki z górnego brzegu komórka
+     * z dolnego brzegu (i na odwrót).
+     */
+    TORUS,
+    /**
+     * Lustro: sąsiad spoza planszy jest odbiciem komórki brzegowej, tj. ma
+     * taki sam stan jak ona.
+     */
+    MIRROR;
+
+    /**
+     * Czy komórki za brzegiem są zawsze takie same, niezależnie od tego co
+     * jest na planszy. Takie komórki wystarczy wpisać raz, pozostałe trzeba
+     * przepisywać z planszy przed każdym krokiem.
+     *
+     * @return true dla WALL i DEAD
+     */
+    boolean isConstant() {
+        return this == WALL || this == DEAD;
+    }
+
+    /**
+     * Która komórka planszy jest widoczna w miejscu komórki spoza planszy (dla
+     * TORUS i MIRROR). Działa tak samo dla wierszy jak i dla kolumn.
+     *
+     * @param index numer wiersza albo kolumny spoza planszy: -1 albo size
+     * @param size liczba wierszy albo kolumn planszy
+     * @return numer wiersza albo kolumny na planszy
+     */
+    int source(int index, int size) {
+        if (this == TORUS) {
+            return index < 0 ? size - 1 : 0;
+        }
+        return index < 0 ? 0 : size - 1;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+/**
+ * Wykrywanie stanu ustalonego (planszy, która już się nie zmienia) i cykli
+ * (planszy, która co p pokoleń wraca do tego samego stanu).
+ *
+ * Pamiętamy skróty (patrz Engine.hash) ostatnich HISTORY pokoleń w małej
+ * tablicy cyklicznej. Jeżeli skrót bieżącego pokolenia jest już w tablicy,
+ * to plansza powtarza któreś z poprzednich pokoleń - a skoro reguła zależy
+ * tylko od planszy, to od tej chwili będzie się powtarzać w nieskończoność.
+ * Okres p = 1 oznacza stan ustalony.
+ *
+ * Znając początek cyklu s i okres p nie trzeba już liczyć pokoleń krok po
+ * kroku: plansza w pokoleniu N (N &gt;= s) jest taka sama jak w pokoleniu
+ * s + (N - s) mod p.
+ *
+ * Skrót ma 64 bity, więc dwie różne plansze mogą mieć ten sam skrót - ale
+ * prawdopodobieństwo tego jest pomijalnie małe (rzędu 2^-64 na porównanie)
+ * i nie porównujemy już całych plansz.
+ *
+ * @author Sławomir Marczyński
+ */
+class CycleDetector {
+
+    // Wykrywamy cykle o okresie najwyżej HISTORY. Dłuższe cykle zdarzają się
+    // przy tych regułach rzadko, a dłuższa tablica oznaczałaby dłuższe
+    // przeszukiwanie po każdym kroku.
+    //
+    static final int HISTORY = 64;
+
+    private final long[] hashes = new long[HISTORY];
+    private final long[] generations = new long[HISTORY];
+    private int count;
+    private int next;
+
+    private long cycleStart = -1;
+    private long period;
+
+    /**
+     * Zapisuje skrót planszy w kolejnym pokoleniu i sprawdza czy plansza
+     * powtarza któreś z zapamiętanych pokoleń.
+     *
+     * @param generation numer pokolenia
+     * @param hash skrót planszy w tym pokoleniu
+     * @return true jeżeli właśnie wykryto cykl
+     */
+    boolean record(long generation, long hash) {
+        if (isPeriodic()) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (hashes[i] == hash) {
+                cycleStart = generations[i];
+                period = generation - generations[i];
+                return true;
+            }
+        }
+        hashes[next] = hash;
+        generations[next] = generation;
+        next = (next + 1) % HISTORY;
+        count = Math.min(count + 1, HISTORY);
+        return false;
+    }
+
+    /**
+     * Czy wykryto już cykl (albo stan ustalony).
+     *
+     * @return true jeżeli ewolucja jest już okresowa
+     */
+    boolean isPeriodic() {
+        return cycleStart >= 0;
+    }
+
+    /**
+     * Pierwsze pokolenie cyklu.
+     *
+     * @return numer pokolenia albo -1 jeżeli cyklu jeszcze nie wykryto
+     */
+    long getCycleStart() {
+        return cycleStart;
+    }
+
+    /**
+     * Okres cyklu, 1 dla stanu ustalonego.
+     *
+     * @return okres albo 0 jeżeli cyklu jeszcze nie wykryto
+     */
+    long getPeriod() {
+        return period;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Silnik rozproszony: plansza jest podzielona na poziome pasy, a każdy pas
+ * przechowuje i liczy osobny proces (osobna maszyna JVM, patrz klasa Worker).
+ * Dzięki temu plansza może być większa niż pamięć jednej maszyny JVM.
+ *
+ * Ten obiekt jest koordynatorem: uruchamia procesy robocze, rozsyła do nich
+ * polecenia (zmień komórkę, podaj wiersz, policz n pokoleń itd.) i zbiera
+ * odpowiedzi. Sam nie przechowuje planszy, poza jednym ostatnio odczytanym
+ * wierszem.
+ *
+ * Do policzenia pokolenia pas potrzebuje jednego wiersza z zakładki (halo)
+ * nad sobą i pod sobą - ostatniego wiersza pasa powyżej i pierwszego wiersza
+ * pasa poniżej. Procesy wymieniają je między sobą bezpośrednio, przez
+ * gniazda TCP na adresie lokalnym (loopback), w każdym pokoleniu. Proces nie
+ * zacznie liczyć pokolenia zanim nie dostanie wierszy od sąsiadów, więc
+ * wymiana działa jednocześnie jako bariera - sąsiednie pasy nigdy nie
+ * rozjadą się o więcej niż jedno pokolenie. Pełną barierą jest odpowiedź
+ * wszystkich procesów na polecenie policzenia n pokoleń.
+ *
+ * Każdy pas jest planszą silnika BitboardEngine, więc wyniki są identyczne
+ * jak w jednym procesie - przy każdym brzegu planszy (patrz Boundary).
+ *
+ * Błąd komunikacji z procesem roboczym jest zgłaszany wyjątkiem
+ * UncheckedIOException, bo metody interfejsu Engine nie deklarują wyjątków.
+ *
+ * Procesy robocze zatrzymuje close - zamyka połączenia, a procesy kończą się
+ * same, gdy koordynator zamknie połączenie. Jeżeli ktoś nie wywoła close,
+ * procesy zatrzyma (destroy) przy wyjściu z JVM wspólny dla wszystkich
+ * silników wątek zamykania (shutdown hook). Jest tylko jeden i istnieje tylko
+ * wtedy, gdy jakiś silnik nie został zamknięty.
+ *
+ * @author Sławomir Marczyński
+ */
+class DistributedEngine implements Engine {
+
+    // Polecenia koordynatora dla procesu roboczego.
+    //
+    static final byte SET_CELL = 1;
+    static final byte READ_ROW = 2;
+    static final byte WRITE_ROW = 3;
+    static final byte EVOLVE = 4;
+    static final byte HASH = 5;
+    static final byte READY = 6;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 60_000;
+    private static final int EXIT_TIMEOUT_MILLIS = 5_000;
+
+    // Silniki, które nie zostały jeszcze zamknięte, i wątek zamykania, który
+    // zatrzyma ich procesy - null, gdy takich silników nie ma.
+    //
+    private static final Set<DistributedEngine> OPEN = new LinkedHashSet<>();
+    private static Thread shutdownHook;
+
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    private final int[] firstRows;
+    private final List<Process> processes = new ArrayList<>();
+    private final DataInputStream[] inputs;
+    private final DataOutputStream[] outputs;
+
+    private int cachedRow = -1;
+    private final long[] cachedWords;
+
+    DistributedEngine(int width, int height, int workers, Boundary boundary) {
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = BitboardEngine.wordsPerRow(width);
+        cachedWords = new long[wordsPerRow];
+
+        // Pas nie może być pusty, więc procesów nie może być więcej niż
+        // wierszy planszy.
+        //
+        workers = Math.min(workers, height);
+        firstRows = new int[workers + 1];
+        for (int i = 0; i <= workers; i++) {
+            firstRows[i] = (int) ((long) height * i / workers);
+        }
+        inputs = new DataInputStream[workers];
+        outputs = new DataOutputStream[workers];
+
+        register(this);
+        try {
+            start(workers, boundary);
+        } catch (IOException exception) {
+            close();
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private static synchronized void register(DistributedEngine engine) {
+        if (shutdownHook == null) {
+            shutdownHook = new Thread(DistributedEngine::destroyAll,
+                    "minilife-workers");
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+        OPEN.add(engine);
+    }
+
+    private static synchronized void unregister(DistributedEngine engine) {
+        if (!OPEN.remove(engine) || !OPEN.isEmpty()) {
+            return;
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException exception) {
+
+            // JVM już się zamyka - wątek zamykania i tak zaraz się wykona.
+            //
+        }
+        shutdownHook = null;
+    }
+
+    private static synchronized void destroyAll() {
+        for (DistributedEngine engine : OPEN) {
+            engine.processes.forEach(Process::destroy);
+        }
+    }
+
+    /**
+     * Zamyka połączenia z procesami roboczymi i czeka, aż się zakończą - te,
+     * które nie zakończą się w ciągu EXIT_TIMEOUT_MILLIS, są zatrzymywane.
+     * Kolejne wywołania nic nie robią.
+     */
+    @Override
+    public void close() {
+        synchronized (DistributedEngine.class) {
+            if (!OPEN.contains(this)) {
+                return;
+            }
+        }
+        for (DataOutputStream output : outputs) {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException exception) {
+
+                    // Proces roboczy i tak zostanie zatrzymany niżej.
+                    //
+                }
+            }
+        }
+        boolean interrupted = false;
+        long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(EXIT_TIMEOUT_MILLIS);
+        for (Process process : processes) {
+            try {
+                long left = deadline - System.nanoTime();
+                if (!process.waitFor(left, TimeUnit.NANOSECONDS)) {
+                    process.destroy();
+                }
+            } catch (InterruptedException exception) {
+                interrupted = true;
+                process.destroy();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        unregister(this);
+    }
+
+    private void start(int workers, Boundary boundary) throws IOException {
+        try (ServerSocket server = new ServerSocket(0, workers,
+                InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+            for (int i = 0; i < workers; i++) {
+                processes.add(launch(server.getLocalPort(), i));
+            }
+
+            // Proces roboczy zgłasza się podając swój numer i port, na
+            // którym czeka na połączenie od sąsiada z północy.
+            //
+            int[] peerPorts = new int[workers];
+            for (int i = 0; i < workers; i++) {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                DataInputStream input = new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream()));
+                int index = input.readInt();
+                peerPorts[index] = input.readInt();
+                inputs[index] = input;
+                outputs[index] = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream()));
+            }
+
+            // Teraz każdy wie, z kim ma się połączyć. Na torusie pierwszy
+            // i ostatni pas też są sąsiadami (chyba że pas jest tylko jeden
+            // - wtedy zawinięcie planszy załatwia sam BitboardEngine).
+            //
+            boolean wrap = boundary == Boundary.TORUS && workers > 1;
+            for (int i = 0; i < workers; i++) {
+                int southPort = i < workers - 1 ? peerPorts[i + 1]
+                        : wrap ? peerPorts[0] : -1;
+                DataOutputStream output = outputs[i];
+                output.writeInt(width);
+                output.writeInt(height);
+                output.writeInt(firstRows[i]);
+                output.writeInt(firstRows[i + 1]);
+                output.writeInt(boundary.ordinal());
+                output.writeBoolean(i > 0 || wrap);
+                output.writeInt(southPort);
+                output.flush();
+            }
+            for (int i = 0; i < workers; i++) {
+                if (inputs[i].readByte() != READY) {
+                    throw new IOException("Proces roboczy " + i
+                            + " nie jest gotowy.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Uruchamia proces roboczy: tę samą maszynę JVM, z tymi samymi opcjami
+     * i tą samą ścieżką klas co bieżąca.
+     */
+    private static Process launch(int port, int index) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean()
+                .getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Worker.class.getName());
+        command.add(Integer.toString(port));
+        command.add(Integer.toString(index));
+        return new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    /**
+     * Numer procesu, który przechowuje wiersz row.
+     */
+    private int owner(int row) {
+        int low = 0;
+        int high = inputs.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (firstRows[middle] <= row) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public boolean isFilledCell(int row, int column) {
+
+        // Odczytujemy od razu cały wiersz - bo zwykle (np. w klasie View)
+        // zaraz potem pytamy o kolejne komórki tego samego wiersza.
+        //
+        if (cachedRow != row) {
+            readRow(row, cachedWords);
+            cachedRow = row;
+        }
+        return (cachedWords[column >>> 6] & (1L << column)) != 0;
+    }
+
+    @Override
+    public void setCell(int row, int column, boolean filled) {
+        cachedRow = -1;
+        int worker = owner(row);
+        try {
+            DataOutputStream output = outputs[worker];
+            output.writeByte(SET_CELL);
+            output.writeInt(row - firstRows[worker]);
+            output.writeInt(column);
+            output.writeBoolean(filled);
+            output.flush();
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    @Override
+    public void readRow(int row, long[] words) {
+        int worker = owner(row);
+        try {
+            DataOutputStream output = outputs[worker];
+            output.writeByte(READ_ROW);
+            output.writeInt(row - firstRows[worker]);
+            output.flush();
+            readWords(inputs[worker], words, wordsPerRow);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    @Override
+    public void writeRow(int row, long[] words) {
+        cachedRow = -1;
+        int worker = owner(row);
+        try {
+            DataOutputStream output = outputs[worker];
+            output.writeByte(WRITE_ROW);
+            output.writeInt(row - firstRows[worker]);
+            writeWords(output, words, wordsPerRow);
+            output.flush();
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    @Override
+    public void mergeRow(int row, long[] words) {
+        long[] merged = new long[wordsPerRow];
+        readRow(row, merged);
+        for (int k = 0; k < wordsPerRow; k++) {
+            merged[k] |= words[k];
+        }
+        writeRow(row, merged);
+    }
+
+    @Override
+    public void evolve() {
+        evolve(1);
+    }
+
+    @Override
+    public void evolve(long generations) {
+        cachedRow = -1;
+        try {
+
+            // Najpierw polecenie dla wszystkich, potem czekamy na wszystkich
+            // - procesy liczą jednocześnie.
+            //
+            for (DataOutputStream output : outputs) {
+                output.writeByte(EVOLVE);
+                output.writeLong(generations);
+                output.flush();
+            }
+            for (DataInputStream input : inputs) {
+                if (input.readByte() != READY) {
+                    throw new IOException("Błąd procesu roboczego.");
+                }
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    @Override
+    public long hash() {
+        long hash = 0;
+        try {
+            for (DataOutputStream output : outputs) {
+                output.writeByte(HASH);
+                output.flush();
+            }
+            for (DataInputStream input : inputs) {
+                hash ^= input.readLong();
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        return hash;
+    }
+
+    static void readWords(DataInputStream input, long[] words, int count)
+            throws IOException {
+        for (int k = 0; k < count; k++) {
+            words[k] = input.readLong();
+        }
+    }
+
+    static void writeWords(DataOutputStream output, long[] words, int count)
+            throws IOException {
+        for (int k = 0; k < count; k++) {
+            output.writeLong(words[k]);
+        }
+    }
+}
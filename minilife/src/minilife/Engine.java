@@ -0,0 +1,187 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+/**
+ * Silnik (engine) to wymienna część modelu: przechowuje planszę i wykonuje na
+ * niej kolejne kroki ewolucji.
+ *
+ * Model nie musi wiedzieć jak plansza jest zapisana w pamięci - może to być
+ * tablica wartości boolean, mogą to być bity upakowane w liczbach long, może
+ * to być coś jeszcze innego. Ważne jest tylko to, że każdy silnik daje takie
+ * same wyniki i odpowiada na te same pytania.
+ *
+ * Współrzędne (row, column) przekazywane do metod silnika są zawsze poprawne,
+ * tj. leżą na planszy - sprawdza to wcześniej klasa Model.
+ *
+ * @author Sławomir Marczyński
+ */
+interface Engine extends Board, AutoCloseable {
+
+    /**
+     * Zwalnia zasoby silnika, których nie zwolni odśmiecanie pamięci - np.
+     * procesy robocze silnika rozproszonego. Po close silnika nie wolno już
+     * używać. Ta wersja nic nie robi.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * Zmienia zawartość komórki.
+     *
+     * @param row numer wiersza
+     * @param column numer kolumny
+     * @param filled true jeżeli komórka ma być zajęta, false jeżeli pusta
+     */
+    void setCell(int row, int column, boolean filled);
+
+    /**
+     * Jeden krok w ewolucji automatu komórkowego.
+     */
+    void evolve();
+
+    /**
+     * Wiele kroków ewolucji naraz. Silniki, które potrafią przeskoczyć wiele
+     * pokoleń szybciej niż krok po kroku, powinny tę metodę przesłonić.
+     *
+     * @param generations liczba pokoleń
+     */
+    default void evolve(long generations) {
+        for (long i = 0; i < generations; i++) {
+            evolve();
+        }
+    }
+
+    /**
+     * Zapisuje cały wiersz planszy podany jako bity upakowane w liczbach long
+     * (tak jak w readRow).
+     *
+     * @param row numer wiersza
+     * @param words tablica co najmniej (width() + 63) / 64 słów
+     */
+    default void writeRow(int row, long[] words) {
+        int width = width();
+        for (int column = 0; column < width; column++) {
+            setCell(row, column, (words[column >>> 6] & (1L << column)) != 0);
+        }
+    }
+
+    /**
+     * Zajmuje komórki odpowiadające zapalonym bitom words (upakowanym tak
+     * jak w readRow), nie zmieniając pozostałych komórek wiersza. Ta wersja
+     * wywołuje setCell tylko dla zajmowanych komórek - silniki, które mają
+     * szybkie readRow i writeRow, powinny ją przesłonić.
+     *
+     * @param row numer wiersza
+     * @param words tablica co najmniej (width() + 63) / 64 słów
+     */
+    default void mergeRow(int row, long[] words) {
+        int wordsPerRow = (width() + 63) >>> 6;
+        for (int k = 0; k < wordsPerRow; k++) {
+            for (long bits = words[k]; bits != 0; bits &= bits - 1) {
+                int column = (k << 6) + Long.numberOfTrailingZeros(bits);
+                if (column < width()) {
+                    setCell(row, column, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Skrót (hash) całej planszy: XOR skrótów wszystkich niezerowych słów
+     * wiersza (patrz hashWord). Tak samo zapełnione plansze mają taki sam
+     * skrót w każdym silniku.
+     *
+     * Skrót jest sumą XOR, więc zmiana jednego słowa zmienia go o
+     * hashWord(stare) ^ hashWord(nowe) - silniki, które wiedzą które słowa
+     * się zmieniły, mogą go więc uaktualniać na bieżąco zamiast liczyć od
+     * nowa, i powinny wtedy tę metodę przesłonić.
+     *
+     * @return skrót planszy
+     */
+    default long hash() {
+        int wordsPerRow = (width() + 63) >>> 6;
+        long[] words = new long[wordsPerRow];
+        long hash = 0;
+        for (int row = 0; row < height(); row++) {
+            readRow(row, words);
+            for (int k = 0; k < wordsPerRow; k++) {
+                hash ^= hashWord(row, k, words[k]);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Statystyki planszy (patrz Statistics).
+     *
+     * Ta wersja przegląda całą planszę i nie wie ile komórek zmieniło się
+     * w ostatnim pokoleniu. Silniki, które mogą zbierać statystyki przy
+     * okazji evolve, powinny tę metodę przesłonić - i zwracać kopię, którą
+     * wywołujący może dowolnie zmieniać.
+     *
+     * @return nowy obiekt ze statystykami bieżącej planszy
+     */
+    default Statistics statistics() {
+        int wordsPerRow = (width() + 63) >>> 6;
+        long[] words = new long[wordsPerRow];
+        long[] empty = new long[wordsPerRow];
+
+        // Jakby wszystkie zajęte komórki właśnie zajęto na pustej planszy.
+        //
+        Statistics statistics = new Statistics();
+        for (int row = 0; row < height(); row++) {
+            readRow(row, words);
+            statistics.addRow(row, empty, words, 0, wordsPerRow);
+        }
+        statistics.finishGeneration();
+        statistics.forgetChanges();
+        return statistics;
+    }
+
+    /**
+     * Skrót jednego słowa planszy, tj. 64 komórek, zależny także od jego
+     * położenia. To uogólnienie skrótu Zobrista: zamiast losowej liczby dla
+     * każdej komórki mamy funkcję mieszającą bity słowa z jego współrzędnymi.
+     * Puste słowo ma skrót 0, dzięki czemu puste obszary nic nie kosztują.
+     *
+     * @param row numer wiersza
+     * @param word numer słowa w wierszu
+     * @param bits zawartość słowa
+     * @return skrót słowa
+     */
+    static long hashWord(int row, int word, long bits) {
+        if (bits == 0) {
+            return 0;
+        }
+        long x = bits ^ (((long) row << 32 | word) * 0x9e3779b97f4a7c15L);
+        x ^= x >>> 33;
+        x *= 0xff51afd7ed558ccdL;
+        x ^= x >>> 33;
+        x *= 0xc4ceb9fe1a85ec53L;
+        x ^= x >>> 33;
+        return x == 0 ? 1 : x;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Zespół (ensemble) wielu niezależnych, losowo zapełnionych plansz - do
+ * badania statystyk, które ma sens liczyć dla tysięcy małych plansz, a nie dla
+ * jednej dużej.
+ *
+ * Uruchamianie programu osobno dla każdej planszy marnowałoby prawie cały
+ * czas na start maszyny JVM, więc wszystkie plansze liczymy tutaj:
+ *
+ * - każda plansza dostaje własny generator SplittableRandom, wydzielony
+ * (split) z jednego generatora o ziarnie z opcji --seed. Kolejne wydzielenia
+ * są robione po kolei, zanim cokolwiek zostanie policzone, więc plansza
+ * numer i jest zawsze taka sama - niezależnie od liczby wątków i kolejności
+ * liczenia;
+ *
+ * - plansze liczy równoległy strumień (parallel stream), czyli wspólna pula
+ * wątków ForkJoinPool - po jednym wątku na rdzeń procesora, a plansza jest
+ * zawsze liczona w całości przez jeden wątek;
+ *
+ * - plansza istnieje tylko w czasie liczenia, a jej statystyki są od razu
+ * dodawane do sum dla kolejnych pokoleń (Summary) - każdy wątek ma własne
+ * sumy, łączone na końcu (redukcja strumienia przez collect). Pamięć zależy
+ * więc od liczby wątków i liczby pokoleń, a nie od liczby plansz - dlatego
+ * pokoleń może być najwyżej MAX_GENERATIONS (patrz Options);
+ *
+ * - dla reguły minilife plansza jest w silniku bitboard (64 komórki w jednej
+ * liczbie long), dla innych reguł - w silniku array.
+ *
+ * @author Sławomir Marczyński
+ */
+class Ensemble {
+
+    /**
+     * Największa liczba pokoleń zespołu: sumy jednego wątku zajmują 72 bajty
+     * na pokolenie, czyli przy tej liczbie około 7 MB.
+     */
+    static final long MAX_GENERATIONS = 100_000;
+
+    private final Options options;
+
+    Ensemble(Options options) {
+        this.options = options;
+    }
+
+    /**
+     * Liczy wszystkie plansze zespołu.
+     *
+     * @return sumy statystyk dla pokoleń od 0 do options.generations
+     */
+    Summary run() {
+        int generations = Math.toIntExact(options.generations);
+        SplittableRandom root = new SplittableRandom(options.seed);
+        SplittableRandom[] randoms = new SplittableRandom[options.ensemble];
+        for (int i = 0; i < randoms.length; i++) {
+            randoms[i] = root.split();
+        }
+        return IntStream.range(0, randoms.length).parallel().collect(
+                () -> new Summary(generations),
+                (summary, i) -> evolve(randoms[i], summary),
+                Summary::add);
+    }
+
+    /**
+     * Losuje planszę, liczy jej ewolucję i dodaje statystyki każdego pokolenia
+     * do sum.
+     */
+    private void evolve(SplittableRandom random, Summary summary) {
+        Engine engine = createEngine();
+        int width = options.width;
+        long[] words = new long[BitboardEngine.wordsPerRow(width)];
+        long lastMask = width % 64 == 0 ? -1L : (1L << width) - 1;
+        for (int row = 0; row < options.height; row++) {
+            for (int k = 0; k < words.length; k++) {
+                words[k] = random.nextLong();
+            }
+            words[words.length - 1] &= lastMask;
+            engine.writeRow(row, words);
+        }
+
+        // Pusta plansza przy regule, w której pusta okolica pozostaje pusta,
+        // już się nie zmieni - resztę pokoleń można dopisać bez liczenia.
+        //
+        boolean quiescent = options.rule.isQuiescent();
+        Statistics statistics = engine.statistics();
+        summary.add(0, statistics);
+        for (int generation = 1; generation < summary.size(); generation++) {
+            if (quiescent && statistics.population == 0) {
+                summary.addEmpty(generation);
+                continue;
+            }
+            engine.evolve();
+            statistics = engine.statistics();
+            summary.add(generation, statistics);
+        }
+    }
+
+    private Engine createEngine() {
+        if (options.rule == Rule.MINILIFE) {
+            return new BitboardEngine(options.width, options.height,
+                    options.boundary);
+        }
+        return new ArrayEngine(options.width, options.height,
+                options.boundary, options.rule);
+    }
+
+    /**
+     * Sumy statystyk wielu plansz, osobno dla każdego pokolenia: liczba
+     * plansz, suma i suma kwadratów liczby zajętych komórek (dla średniej
+     * i odchylenia standardowego; w liczbach long, a nie double, żeby wynik
+     * nie zależał od kolejności dodawania), najmniejsza i największa liczba
+     * zajętych komórek, liczba pustych plansz oraz sumy zajętych
+     * i opróżnionych komórek - tylko z plansz, dla których są znane.
+     */
+    static class Summary {
+
+        final long[] boards;
+        final long[] population;
+        final long[] squares;
+        final long[] minimum;
+        final long[] maximum;
+        final long[] extinct;
+        final long[] changed;
+        final long[] births;
+        final long[] deaths;
+
+        Summary(int generations) {
+            int size = generations + 1;
+            boards = new long[size];
+            population = new long[size];
+            squares = new long[size];
+            minimum = new long[size];
+            maximum = new long[size];
+            extinct = new long[size];
+            changed = new long[size];
+            births = new long[size];
+            deaths = new long[size];
+            Arrays.fill(minimum, Long.MAX_VALUE);
+        }
+
+        int size() {
+            return boards.length;
+        }
+
+        void add(int generation, Statistics statistics) {
+            long cells = statistics.population;
+            boards[generation]++;
+            population[generation] += cells;
+            squares[generation] += cells * cells;
+            minimum[generation] = Math.min(minimum[generation], cells);
+            maximum[generation] = Math.max(maximum[generation], cells);
+            if (cells == 0) {
+                extinct[generation]++;
+            }
+            if (statistics.hasChanges()) {
+                changed[generation]++;
+                births[generation] += statistics.births;
+                deaths[generation] += statistics.deaths;
+            }
+        }
+
+        /**
+         * Pusta plansza, która już się nie zmienia - bez zajętych
+         * i opróżnionych komórek.
+         */
+        void addEmpty(int generation) {
+            boards[generation]++;
+            minimum[generation] = 0;
+            extinct[generation]++;
+            changed[generation]++;
+        }
+
+        void add(Summary other) {
+            for (int i = 0; i < boards.length; i++) {
+                boards[i] += other.boards[i];
+                population[i] += other.population[i];
+                squares[i] += other.squares[i];
+                minimum[i] = Math.min(minimum[i], other.minimum[i]);
+                maximum[i] = Math.max(maximum[i], other.maximum[i]);
+                extinct[i] += other.extinct[i];
+                changed[i] += other.changed[i];
+                births[i] += other.births[i];
+                deaths[i] += other.deaths[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.util.Arrays;
+
+/**
+ * Niezmienna kopia planszy z jednego pokolenia.
+ *
+ * Silnik zmienia planszę przy każdym kroku ewolucji, więc nie można jej
+ * rysować ani zapisywać w innym wątku w czasie, gdy liczone jest następne
+ * pokolenie. Kopia może - nikt jej już nie zmieni, więc wątek, który ją
+ * dostanie (patrz Pipeline), nie musi niczego synchronizować.
+ *
+ * Wiersze są przechowywane tak jak w Board.readRow, jako bity upakowane
+ * w liczbach long - kopia planszy 1000 na 1000 komórek zajmuje około 128 kB.
+ *
+ * Pokolenie może też być widokiem kopiowanym przy zapisie (patrz view):
+ * dopóki model się nie zmieni, czyta komórki prosto z planszy modelu,
+ * a kopię robi dopiero model - tuż przed zmianą planszy, o ile pokolenie
+ * nadal jest widokiem (patrz detach) i ktoś jeszcze go używa. Model trzyma
+ * widok przez słabą referencję (WeakReference), więc widoku porzuconego
+ * i już usuniętego przez odśmiecacz pamięci nie kopiuje; porzuconego, ale
+ * jeszcze nie usuniętego - niestety tak. Kto zaś widok zatrzymał, nie
+ * wstrzymuje ewolucji.
+ *
+ * @author Sławomir Marczyński
+ */
+final class Generation implements Board {
+
+    /**
+     * Pusta plansza 0 na 0 komórek, np. jako znacznik końca kolejki pokoleń.
+     */
+    static final Generation NONE = new Generation();
+
+    final long number;
+    private final int width;
+    private final int height;
+
+    // Wiersze kopii, null dopóki pokolenie jest widokiem planszy source.
+    // Pole jest volatile, bo widok może odłączyć (detach) inny wątek niż
+    // ten, który go czyta.
+    //
+    private volatile long[][] rows;
+    private final Board source;
+
+    private Generation() {
+        number = -1;
+        width = 0;
+        height = 0;
+        rows = new long[0][];
+        source = null;
+    }
+
+    private Generation(long number, Board source) {
+        this.number = number;
+        this.source = source;
+        width = source.width();
+        height = source.height();
+    }
+
+    /**
+     * Tworzy widok planszy, który do czasu wywołania detach nie zajmuje
+     * pamięci na kopię. Ten, kto utworzył widok, musi wywołać detach zanim
+     * zmieni planszę.
+     *
+     * @param board plansza, np. silnik modelu
+     * @param number numer pokolenia
+     * @return widok planszy
+     */
+    static Generation view(Board board, long number) {
+        return new Generation(number, board);
+    }
+
+    /**
+     * Kopiuje planszę.
+     *
+     * @param board plansza, np. model
+     * @param number numer pokolenia
+     */
+    Generation(Board board, long number) {
+        this.number = number;
+        width = board.width();
+        height = board.height();
+        rows = copy(board);
+        source = null;
+    }
+
+    /**
+     * Tworzy pokolenie z planszy zapisanej w jednej tablicy, wiersz po
+     * wierszu, po (width + 63) / 64 słów na wiersz - np. odtworzonej
+     * z historii (patrz History).
+     *
+     * @param number numer pokolenia
+     * @param width szerokość planszy
+     * @param height wysokość planszy
+     * @param words słowa planszy, kopiowane
+     */
+    Generation(long number, int width, int height, long[] words) {
+        this.number = number;
+        this.width = width;
+        this.height = height;
+        int wordsPerRow = (width + 63) >>> 6;
+        long[][] copy = new long[height][];
+        for (int row = 0; row < height; row++) {
+            copy[row] = Arrays.copyOfRange(words, row * wordsPerRow,
+                    (row + 1) * wordsPerRow);
+        }
+        rows = copy;
+        source = null;
+    }
+
+    private static long[][] copy(Board board) {
+        long[][] copy = new long[board.height()][(board.width() + 63) >>> 6];
+        for (int row = 0; row < copy.length; row++) {
+            board.readRow(row, copy[row]);
+        }
+        return copy;
+    }
+
+    /**
+     * Odłącza widok od planszy, kopiując ją - potem planszę można zmieniać.
+     * Dla pokolenia, które już jest kopią, nic nie robi.
+     *
+     * Trzeba wywołać w wątku, który zmienia planszę, zanim ją zmieni; wątki
+     * czytające widok w tym samym czasie nie mogą się z tym wątkiem ścigać,
+     * tj. widok wolno przekazać innemu wątkowi dopiero po odłączeniu.
+     */
+    void detach() {
+        if (rows == null) {
+            rows = copy(source);
+        }
+    }
+
+    /**
+     * Czy pokolenie jest widokiem, tj. czy nie zostało jeszcze skopiowane.
+     *
+     * @return true dla widoku, false dla kopii
+     */
+    boolean isView() {
+        return rows == null;
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public boolean isFilledCell(int row, int column) {
+        long[][] copy = rows;
+        if (copy == null) {
+            return source.isFilledCell(row, column);
+        }
+        return (copy[row][column >>> 6] & (1L << column)) != 0;
+    }
+
+    @Override
+    public long countFilled(int top, int left, int bottom, int right) {
+        long[][] copy = rows;
+        if (copy == null) {
+            return source.countFilled(top, left, bottom, right);
+        }
+        long count = 0;
+        for (int row = top; row < bottom; row++) {
+            count += BitboardEngine.countBits(copy[row], left, right);
+        }
+        return count;
+    }
+
+    @Override
+    public void readRow(int row, long[] words) {
+        long[][] copy = rows;
+        if (copy == null) {
+            source.readRow(row, words);
+        } else {
+            System.arraycopy(copy[row], 0, words, 0, copy[row].length);
+        }
+    }
+}
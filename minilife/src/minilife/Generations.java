@@ -0,0 +1,136 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Źródło leniwego strumienia pokoleń modelu (patrz Model.generations).
+ *
+ * Kolejne pokolenie jest liczone dopiero wtedy, gdy strumień po nie sięgnie
+ * (tryAdvance), a do strumienia trafia widok planszy, który model skopiuje
+ * przed następnym krokiem ewolucji - o ile widok jest jeszcze osiągalny
+ * (patrz Model.view).
+ *
+ * Pokoleń nie da się liczyć równolegle - każde zależy od poprzedniego. Przy
+ * strumieniu równoległym trySplit liczy więc kilka kolejnych pokoleń i oddaje
+ * innym wątkom ich kopie do analizy, a liczenie dalszych nadal odbywa się
+ * w jednym wątku. Wątki dostają kopie, a nie widoki, bo widok czyta planszę,
+ * którą w tym czasie zmienia ewolucja. Liczba kopii w jednej porcji rośnie
+ * o jeden z każdym podziałem, ale porcja nie zajmuje więcej niż
+ * MAX_BATCH_BYTES pamięci.
+ *
+ * Porcje są liczone na zapas, zanim ktokolwiek po nie sięgnie, więc nie mogą
+ * zmieniać modelu. Pierwszy podział kopiuje planszę modelu do osobnego
+ * silnika (fork, patrz Model.copyEngine) i odtąd wszystkie pokolenia - także
+ * te pobrane przez tryAdvance - są liczone na nim.
+ *
+ * @author Sławomir Marczyński
+ */
+class Generations implements Spliterator<Generation> {
+
+    static final long MAX_BATCH_BYTES = 16 << 20;
+
+    private static final int CHARACTERISTICS = ORDERED | NONNULL | IMMUTABLE;
+
+    private final Model model;
+    private final long step;
+    private final int maxBatch;
+    private boolean started;
+    private int batch;
+
+    // Kopia planszy po pierwszym podziale, null przed nim, i numer pokolenia,
+    // które jest na niej.
+    //
+    private Engine fork;
+    private long forkGeneration;
+
+    /**
+     * Tworzy źródło pokoleń, zaczynając od bieżącego pokolenia modelu.
+     *
+     * @param model model, który będzie zmieniany przez strumień
+     * @param step co ile pokoleń, co najmniej 1
+     * @throws IllegalArgumentException gdy step jest mniejszy niż 1
+     */
+    Generations(Model model, long step) {
+        if (step < 1) {
+            throw new IllegalArgumentException(
+                    "Krok musi być dodatni, a jest " + step + ".");
+        }
+        this.model = model;
+        this.step = step;
+        long bytes = 8L * BitboardEngine.wordsPerRow(model.width())
+                * model.height();
+        maxBatch = (int) Math.max(1, Math.min(1 << 10,
+                MAX_BATCH_BYTES / Math.max(1, bytes)));
+    }
+
+    private Generation next() {
+        if (fork == null) {
+            if (started) {
+                model.evolve(step);
+            }
+            started = true;
+            return model.view();
+        }
+        if (started) {
+            fork.evolve(step);
+            forkGeneration += step;
+        }
+        started = true;
+        return new Generation(fork, forkGeneration);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Generation> action) {
+        action.accept(next());
+        return true;
+    }
+
+    @Override
+    public Spliterator<Generation> trySplit() {
+        if (fork == null) {
+            fork = model.copyEngine();
+            forkGeneration = model.getGeneration();
+        }
+        batch = Math.min(batch + 1, maxBatch);
+        Generation[] copies = new Generation[batch];
+        for (int i = 0; i < batch; i++) {
+            copies[i] = next();
+        }
+        return Spliterators.spliterator(copies, CHARACTERISTICS);
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return CHARACTERISTICS;
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Silnik wykorzystujący algorytm Hashlife (Bill Gosper, 1984).
+ *
+ * Plansza jest drzewem czwórkowym (quadtree): węzeł poziomu k to kwadrat
+ * 2^k na 2^k komórek złożony z czterech węzłów poziomu k - 1. Identyczne
+ * fragmenty planszy są tym samym obiektem (każdy węzeł jest tworzony tylko
+ * raz, patrz metoda join), więc plansza powtarzalna zajmuje bardzo mało
+ * pamięci. Co ważniejsze, dla każdego węzła zapamiętujemy wynik jego ewolucji
+ * - gdy ten sam fragment pojawi się znów, gdziekolwiek i kiedykolwiek, wynik
+ * jest już gotowy. Dzięki temu można przeskoczyć o 2^j pokoleń naraz, często
+ * w czasie znacznie krótszym niż liczenie choćby jednego pokolenia.
+ *
+ * Plansza ma skończone rozmiary, a komórki spoza niej są ścianą (WALL): ściana
+ * nie jest ani zajęta (przy zajmowaniu komórek), ani pusta (przy ich
+ * opróżnianiu) i nigdy się nie zmienia. To dokładnie odpowiada regule
+ * z klasy ArrayEngine dla komórek spoza planszy.
+ *
+ * Reguła może być dowolna (patrz Rule), byle pusta okolica pozostawała pusta
+ * - inaczej nie można byłoby pomijać pustych fragmentów planszy.
+ *
+ * Pamięć podręczna węzłów jest ograniczona: gdy węzłów jest więcej niż
+ * cacheLimit, wszystkie zapamiętane wyniki są porzucane (flush) - także
+ * w trakcie jednego skoku, bo pojedynczy skok o 2^j pokoleń może utworzyć
+ * dowolnie wiele węzłów. Przed następnym skokiem drzewo bieżącej planszy
+ * jest budowane od nowa, aby jego węzły znów były jedyne w swoim rodzaju.
+ *
+ * @author Sławomir Marczyński
+ */
+class HashlifeEngine implements Engine {
+
+    static final int DEFAULT_CACHE_LIMIT = 1 << 20;
+
+    // Skok o 2^63 pokoleń wymaga węzła poziomu 65, stąd taki największy
+    // możliwy poziom drzewa.
+    //
+    private static final int MAX_LEVEL = 66;
+
+    /**
+     * Węzeł drzewa. Węzły są niezmienne (immutable), z wyjątkiem pól result
+     * i resultStep, w których zapamiętujemy wynik ewolucji.
+     */
+    private static final class Node {
+
+        private static long counter;
+
+        final Node nw;
+        final Node ne;
+        final Node sw;
+        final Node se;
+        final int level;
+        final long population;
+        final long id = counter++;
+        private final int hash;
+
+        Node result;
+        int resultStep = -1;
+
+        /*
+         * Liść, tj. węzeł poziomu 0 - jedna komórka.
+         */
+        Node(long population) {
+            nw = ne = sw = se = null;
+            level = 0;
+            this.population = population;
+            hash = (int) id;
+        }
+
+        Node(Node nw, Node ne, Node sw, Node se) {
+            this.nw = nw;
+            this.ne = ne;
+            this.sw = sw;
+            this.se = se;
+            level = nw.level + 1;
+            population = nw.population + ne.population + sw.population
+                    + se.population;
+            long h = nw.id;
+            h = h * 31 + ne.id;
+            h = h * 31 + sw.id;
+            h = h * 31 + se.id;
+            hash = (int) (h ^ (h >>> 32));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Node)) {
+                return false;
+            }
+            Node that = (Node) object;
+            return level > 0 && nw == that.nw && ne == that.ne
+                    && sw == that.sw && se == that.se;
+        }
+    }
+
+    // Trzy liście - trzy możliwe stany komórki.
+    //
+    private static final Node DEAD = new Node(0);
+    private static final Node ALIVE = new Node(1);
+    private static final Node WALL = new Node(0);
+
+    private final int width;
+    private final int height;
+    private final int cacheLimit;
+    private final Rule rule;
+
+    private Map<Node, Node> nodes = new HashMap<>();
+    private Node[] deadNodes = new Node[MAX_LEVEL];
+    private Node[] wallNodes = new Node[MAX_LEVEL];
+    private Node root;
+
+    // Czy od ostatniego odbudowania drzewa porzucono wyniki (patrz flush).
+    //
+    private boolean flushed;
+
+    HashlifeEngine(int width, int height) {
+        this(width, height, DEFAULT_CACHE_LIMIT);
+    }
+
+    HashlifeEngine(int width, int height, Rule rule) {
+        this(width, height, DEFAULT_CACHE_LIMIT, rule);
+    }
+
+    HashlifeEngine(int width, int height, int cacheLimit) {
+        this(width, height, cacheLimit, Rule.MINILIFE);
+    }
+
+    HashlifeEngine(int width, int height, int cacheLimit, Rule rule) {
+        this.width = width;
+        this.height = height;
+        this.cacheLimit = cacheLimit;
+        this.rule = rule;
+        int level = Math.max(2,
+                32 - Integer.numberOfLeadingZeros(Math.max(width, height) - 1));
+        root = build(level, 0, 0);
+    }
+
+    /**
+     * Tworzy węzeł pustej planszy, w którym komórki spoza planszy są ścianą.
+     */
+    private Node build(int level, long row, long column) {
+        long size = 1L << level;
+        if (row >= height || column >= width) {
+            return wall(level);
+        }
+        if (row + size <= height && column + size <= width) {
+            return dead(level);
+        }
+        long half = size >> 1;
+        return join(build(level - 1, row, column),
+                build(level - 1, row, column + half),
+                build(level - 1, row + half, column),
+                build(level - 1, row + half, column + half));
+    }
+
+    /**
+     * Zwraca jedyny węzeł o podanych ćwiartkach, tworząc go jeżeli jeszcze go
+     * nie było.
+     */
+    private Node join(Node nw, Node ne, Node sw, Node se) {
+        Node node = new Node(nw, ne, sw, se);
+        Node existing = nodes.putIfAbsent(node, node);
+        if (existing != null) {
+            return existing;
+        }
+        if (nodes.size() > cacheLimit) {
+            flush();
+        }
+        return node;
+    }
+
+    private Node dead(int level) {
+        if (deadNodes[level] == null) {
+            deadNodes[level] = level == 0 ? DEAD : join(dead(level - 1),
+                    dead(level - 1), dead(level - 1), dead(level - 1));
+        }
+        return deadNodes[level];
+    }
+
+    private Node wall(int level) {
+        if (wallNodes[level] == null) {
+            wallNodes[level] = level == 0 ? WALL : join(wall(level - 1),
+                    wall(level - 1), wall(level - 1), wall(level - 1));
+        }
+        return wallNodes[level];
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public boolean isFilledCell(int row, int column) {
+        Node node = root;
+        while (node.level > 0) {
+            int half = 1 << (node.level - 1);
+            boolean south = row >= half;
+            boolean east = column >= half;
+            row -= south ? half : 0;
+            column -= east ? half : 0;
+            node = south ? (east ? node.se : node.sw)
+                    : (east ? node.ne : node.nw);
+        }
+        return node == ALIVE;
+    }
+
+    /**
+     * Każdy węzeł zna liczbę zajętych komórek, więc węzły leżące w całości
+     * w prostokącie (i węzły puste) nie są dalej przeglądane.
+     */
+    @Override
+    public long countFilled(int top, int left, int bottom, int right) {
+        return countFilled(root, 0, 0, top, left, bottom, right);
+    }
+
+    private static long countFilled(Node node, long row, long column, int top,
+            int left, int bottom, int right) {
+        long size = 1L << node.level;
+        if (node.population == 0 || row >= bottom || row + size <= top
+                || column >= right || column + size <= left) {
+            return 0;
+        }
+        if (row >= top && row + size <= bottom && column >= left
+                && column + size <= right) {
+            return node.population;
+        }
+        long half = size >> 1;
+        return countFilled(node.nw, row, column, top, left, bottom, right)
+                + countFilled(node.ne, row, column + half, top, left, bottom,
+                        right)
+                + countFilled(node.sw, row + half, column, top, left, bottom,
+                        right)
+                + countFilled(node.se, row + half, column + half, top, left,
+                        bottom, right);
+    }
+
+    @Override
+    public void setCell(int row, int column, boolean filled) {
+        root = set(root, row, column, filled ? ALIVE : DEAD);
+    }
+
+    private Node set(Node node, int row, int column, Node leaf) {
+        if (node.level == 0) {
+            return leaf;
+        }
+        int half = 1 << (node.level - 1);
+        if (row < half) {
+            return column < half
+                    ? join(set(node.nw, row, column, leaf), node.ne, node.sw,
+                            node.se)
+                    : join(node.nw, set(node.ne, row, column - half, leaf),
+                            node.sw, node.se);
+        }
+        return column < half
+                ? join(node.nw, node.ne, set(node.sw, row - half, column, leaf),
+                        node.se)
+                : join(node.nw, node.ne, node.sw,
+                        set(node.se, row - half, column - half, leaf));
+    }
+
+    @Override
+    public void evolve() {
+        evolve(1);
+    }
+
+    /**
+     * Przeskakuje o podaną liczbę pokoleń. Liczbę rozkładamy na potęgi dwójki
+     * i dla każdej z nich wykonujemy jeden skok o 2^j pokoleń.
+     *
+     * @param generations liczba pokoleń
+     */
+    @Override
+    public void evolve(long generations) {
+        for (int j = 0; generations != 0; j++, generations >>>= 1) {
+            if ((generations & 1) != 0) {
+                if (flushed) {
+                    collectGarbage();
+                }
+                root = advance(root, j);
+            }
+        }
+    }
+
+    /**
+     * Przesuwa planszę o 2^j pokoleń.
+     *
+     * Wynikiem step(node, j) jest środek węzła, a nie cały węzeł, dlatego
+     * planszę najpierw otaczamy ścianą (expand) - tak, aby dawny korzeń był
+     * dokładnie środkiem - a potem z wyniku wycinamy środek tyle razy, ile
+     * dodatkowych warstw było potrzebnych.
+     */
+    private Node advance(Node node, int j) {
+        int level = node.level;
+        Node expanded = expand(node);
+        while (expanded.level < j + 2) {
+            expanded = expand(expanded);
+        }
+        Node result = step(expanded, j);
+        while (result.level > level) {
+            result = centre(result);
+        }
+        return result;
+    }
+
+    /**
+     * Węzeł o poziom większy, którego środkiem jest node, a resztą ściana.
+     */
+    private Node expand(Node node) {
+        Node wall = wall(node.level - 1);
+        return join(join(wall, wall, wall, node.nw),
+                join(wall, wall, node.ne, wall),
+                join(wall, node.sw, wall, wall),
+                join(node.se, wall, wall, wall));
+    }
+
+    private Node centre(Node node) {
+        return join(node.nw.se, node.ne.sw, node.sw.ne, node.se.nw);
+    }
+
+    /**
+     * Środek węzła node (poziomu k) po 2^j pokoleniach, gdzie j &lt;= k - 2.
+     * Wynik jest węzłem poziomu k - 1.
+     */
+    private Node step(Node node, int j) {
+
+        // Bez zajętych komórek nic się nie zmienia - ani puste komórki, ani
+        // ściana.
+        //
+        if (node.population == 0) {
+            return centre(node);
+        }
+        if (node.level == 2) {
+            return base(node);
+        }
+        if (node.resultStep == j) {
+            return node.result;
+        }
+
+        // Dziewięć nakładających się kwadratów o połowę mniejszych niż node:
+        // n00 to lewy górny róg, n11 środek, n22 prawy dolny róg.
+        //
+        Node n00 = node.nw;
+        Node n01 = join(node.nw.ne, node.ne.nw, node.nw.se, node.ne.sw);
+        Node n02 = node.ne;
+        Node n10 = join(node.nw.sw, node.nw.se, node.sw.nw, node.sw.ne);
+        Node n11 = centre(node);
+        Node n12 = join(node.ne.sw, node.ne.se, node.se.nw, node.se.ne);
+        Node n20 = node.sw;
+        Node n21 = join(node.sw.ne, node.se.nw, node.sw.se, node.se.sw);
+        Node n22 = node.se;
+
+        Node result;
+        if (j < node.level - 2) {
+
+            // Krótki skok: każdy z dziewięciu kwadratów przesuwamy o 2^j
+            // pokoleń, a z ich wyników składamy środek węzła.
+            //
+            Node r00 = step(n00, j);
+            Node r01 = step(n01, j);
+            Node r02 = step(n02, j);
+            Node r10 = step(n10, j);
+            Node r11 = step(n11, j);
+            Node r12 = step(n12, j);
+            Node r20 = step(n20, j);
+            Node r21 = step(n21, j);
+            Node r22 = step(n22, j);
+            result = join(join(r00.se, r01.sw, r10.ne, r11.nw),
+                    join(r01.se, r02.sw, r11.ne, r12.nw),
+                    join(r10.se, r11.sw, r20.ne, r21.nw),
+                    join(r11.se, r12.sw, r21.ne, r22.nw));
+        } else {
+
+            // Pełny skok: dwa razy po 2^(j-1) pokoleń. Najpierw dziewięć
+            // kwadratów, potem cztery kwadraty złożone z ich wyników.
+            //
+            Node r00 = step(n00, j - 1);
+            Node r01 = step(n01, j - 1);
+            Node r02 = step(n02, j - 1);
+            Node r10 = step(n10, j - 1);
+            Node r11 = step(n11, j - 1);
+            Node r12 = step(n12, j - 1);
+            Node r20 = step(n20, j - 1);
+            Node r21 = step(n21, j - 1);
+            Node r22 = step(n22, j - 1);
+            result = join(step(join(r00, r01, r10, r11), j - 1),
+                    step(join(r01, r02, r11, r12), j - 1),
+                    step(join(r10, r11, r20, r21), j - 1),
+                    step(join(r11, r12, r21, r22), j - 1));
+        }
+        node.result = result;
+        node.resultStep = j;
+        return result;
+    }
+
+    /**
+     * Środek węzła 4 na 4 komórki po jednym pokoleniu, liczony wprost z reguły.
+     */
+    private Node base(Node node) {
+        Node[][] cells = new Node[4][4];
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 4; column++) {
+                Node quarter = row < 2
+                        ? (column < 2 ? node.nw : node.ne)
+                        : (column < 2 ? node.sw : node.se);
+                int r = row & 1;
+                int c = column & 1;
+                cells[row][column] = r == 0
+                        ? (c == 0 ? quarter.nw : quarter.ne)
+                        : (c == 0 ? quarter.sw : quarter.se);
+            }
+        }
+        return join(rule(cells, 1, 1), rule(cells, 1, 2),
+                rule(cells, 2, 1), rule(cells, 2, 2));
+    }
+
+    /**
+     * Nowy stan komórki cells[row][column] według reguły - z kwadratu 3 na 3
+     * komórki wokół niej, zapisanego tak jak w klasie Rule.
+     */
+    private Node rule(Node[][] cells, int row, int column) {
+        if (cells[row][column] == WALL) {
+            return WALL;
+        }
+        int filled = 0;
+        int present = 0;
+        for (int c = 0; c < 3; c++) {
+            for (int r = 0; r < 3; r++) {
+                Node cell = cells[row - 1 + r][column - 1 + c];
+                int bit = 1 << (3 * c + r);
+                if (cell == ALIVE) {
+                    filled |= bit;
+                }
+                if (cell != WALL) {
+                    present |= bit;
+                }
+            }
+        }
+        boolean alive = present == Rule.ALL ? rule.next(filled)
+                : rule.next(filled, present);
+        return alive ? ALIVE : DEAD;
+    }
+
+    /**
+     * Porzuca zapamiętane wyniki wszystkich węzłów i zapomina węzły - poza
+     * pustymi i ścianą. Można to zrobić w dowolnej chwili, także w trakcie
+     * step: węzły nadal są poprawne, tylko nowe węzły o tych samych
+     * ćwiartkach nie będą już tymi samymi obiektami, a wyniki trzeba będzie
+     * liczyć od nowa. Porzucenie wyników sprawia, że zapomniane węzły
+     * przestają być osiągalne i mogą zostać usunięte z pamięci.
+     */
+    private void flush() {
+        for (Node node : nodes.keySet()) {
+            node.result = null;
+            node.resultStep = -1;
+        }
+        nodes = new HashMap<>();
+        for (Node[] kept : new Node[][]{deadNodes, wallNodes}) {
+            for (Node node : kept) {
+                if (node != null && node.level > 0) {
+                    nodes.put(node, node);
+                }
+            }
+        }
+        flushed = true;
+    }
+
+    /**
+     * Porzuca wszystkie węzły i zapamiętane wyniki, a następnie odbudowuje
+     * drzewo bieżącej planszy.
+     */
+    private void collectGarbage() {
+        nodes = new HashMap<>();
+        deadNodes = new Node[deadNodes.length];
+        wallNodes = new Node[wallNodes.length];
+        root = rebuild(root, new IdentityHashMap<>());
+        flushed = false;
+    }
+
+    private Node rebuild(Node node, Map<Node, Node> rebuilt) {
+        if (node.level == 0) {
+            return node;
+        }
+        Node copy = rebuilt.get(node);
+        if (copy == null) {
+            copy = join(rebuild(node.nw, rebuilt), rebuild(node.ne, rebuilt),
+                    rebuild(node.sw, rebuilt), rebuild(node.se, rebuilt));
+            rebuilt.put(node, copy);
+        }
+        return copy;
+    }
+}
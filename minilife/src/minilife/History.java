@@ -0,0 +1,391 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Historia ewolucji: zapamiętane kolejne pokolenia, do których można potem
+ * wrócić - w dowolnej kolejności, także krok po kroku wstecz - bez liczenia
+ * wszystkiego od nowa od pokolenia zerowego.
+ *
+ * Kolejne pokolenia zwykle niewiele się od siebie różnią, więc zamiast całej
+ * planszy zapamiętujemy tylko różnicę (delta) między pokoleniem a poprzednim
+ * zapamiętanym: XOR słów planszy (bitów upakowanych jak w Board.readRow).
+ * Słowa, które się nie zmieniły, dają zera, a ciągi zer nie są zapisywane
+ * wcale (patrz encode). XOR jest odwracalny - ta sama różnica prowadzi od
+ * pokolenia poprzedniego do następnego i od następnego do poprzedniego.
+ *
+ * Żeby do odległego pokolenia nie trzeba było dochodzić przez tysiące
+ * różnic, co keyframeEvery pokoleń zapamiętujemy też całą planszę (klatkę
+ * kluczową, keyframe) - zapisaną tak samo, jako różnicę od pustej planszy.
+ * Odtworzenie dowolnego pokolenia wymaga więc najwyżej keyframeEvery / 2
+ * różnic, liczonych od najbliższej klatki kluczowej albo od ostatnio
+ * odtworzonego pokolenia, jeżeli jest bliżej.
+ *
+ * Gdy historia zajmuje więcej niż budget bajtów, usuwamy najstarsze
+ * pokolenia - zawsze od klatki kluczowej do następnej, bo bez klatki
+ * kluczowej reszty nie dałoby się odtworzyć. Najnowszy taki odcinek zostaje
+ * zawsze, nawet gdy sam przekracza budżet.
+ *
+ * @author Sławomir Marczyński
+ */
+class History {
+
+    // Przybliżony koszt jednego wpisu poza tablicami danych: obiekt Entry,
+    // nagłówki tablic i miejsce w liście.
+    //
+    private static final long ENTRY_BYTES = 64;
+
+    /**
+     * Jedno zapamiętane pokolenie.
+     */
+    private static class Entry {
+
+        final long generation;
+        final long[] delta;
+        final long[] keyframe;
+
+        Entry(long generation, long[] delta, long[] keyframe) {
+            this.generation = generation;
+            this.delta = delta;
+            this.keyframe = keyframe;
+        }
+
+        long bytes() {
+            long words = delta.length
+                    + (keyframe != null ? keyframe.length : 0);
+            return ENTRY_BYTES + words * Long.BYTES;
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    private final int keyframeEvery;
+    private final long budget;
+
+    private final List<Entry> entries = new ArrayList<>();
+    private long bytes;
+    private int sinceKeyframe;
+
+    // newest - plansza najnowszego pokolenia, od którego liczymy różnicę
+    // następnego; cursor - ostatnio odtworzone pokolenie (numer wpisu
+    // w cursorIndex, -1 gdy nie ma takiego); scratch - bufor dla encode, dość
+    // duży na najgorszy przypadek (słowa niezerowe przedzielone pojedynczymi
+    // zerami).
+    //
+    private long[] newest;
+    private long[] next;
+    private final long[] cursor;
+    private int cursorIndex = -1;
+    private final long[] scratch;
+
+    /**
+     * Tworzy pustą historię.
+     *
+     * @param width szerokość planszy
+     * @param height wysokość planszy
+     * @param keyframeEvery co ile zapamiętanych pokoleń cała plansza
+     * @param budget ile bajtów może zajmować historia
+     */
+    History(int width, int height, int keyframeEvery, long budget) {
+        this.width = width;
+        this.height = height;
+        this.keyframeEvery = keyframeEvery;
+        this.budget = budget;
+        wordsPerRow = BitboardEngine.wordsPerRow(width);
+        newest = new long[wordsPerRow * height];
+        next = new long[wordsPerRow * height];
+        cursor = new long[wordsPerRow * height];
+        scratch = new long[wordsPerRow * height * 3 / 2 + 2];
+    }
+
+    /**
+     * Zapamiętuje pokolenie.
+     *
+     * @param board plansza
+     * @param generation numer pokolenia, większy niż numer ostatnio
+     * zapamiętanego
+     */
+    void record(Board board, long generation) {
+        if (!entries.isEmpty() && generation <= last()) {
+            throw new IllegalArgumentException("Pokolenie " + generation
+                    + " nie jest nowsze niż " + last() + ".");
+        }
+        long[] row = new long[wordsPerRow];
+        for (int r = 0; r < height; r++) {
+            board.readRow(r, row);
+            System.arraycopy(row, 0, next, r * wordsPerRow, wordsPerRow);
+        }
+        long[] delta = encode(newest, next);
+        long[] keyframe = null;
+        if (entries.isEmpty() || sinceKeyframe + 1 >= keyframeEvery) {
+            keyframe = encode(null, next);
+            sinceKeyframe = 0;
+        } else {
+            sinceKeyframe++;
+        }
+        Entry entry = new Entry(generation, delta, keyframe);
+        entries.add(entry);
+        bytes += entry.bytes();
+
+        long[] swap = newest;
+        newest = next;
+        next = swap;
+        evict();
+    }
+
+    /**
+     * Usuwa najstarsze odcinki historii (od klatki kluczowej do następnej),
+     * dopóki historia przekracza budżet.
+     */
+    private void evict() {
+        while (bytes > budget) {
+            int end = 1;
+            while (end < entries.size() && entries.get(end).keyframe == null) {
+                end++;
+            }
+            if (end == entries.size()) {
+                return;
+            }
+            List<Entry> evicted = entries.subList(0, end);
+            for (Entry entry : evicted) {
+                bytes -= entry.bytes();
+            }
+            evicted.clear();
+            cursorIndex = cursorIndex >= end ? cursorIndex - end : -1;
+        }
+    }
+
+    /**
+     * Ile bajtów zajmuje historia (w przybliżeniu).
+     *
+     * @return liczba bajtów
+     */
+    long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Ile pokoleń jest zapamiętanych.
+     *
+     * @return liczba pokoleń
+     */
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Numer najstarszego zapamiętanego pokolenia.
+     *
+     * @return numer pokolenia albo -1 jeżeli historia jest pusta
+     */
+    long first() {
+        return entries.isEmpty() ? -1 : entries.get(0).generation;
+    }
+
+    /**
+     * Numer najnowszego zapamiętanego pokolenia.
+     *
+     * @return numer pokolenia albo -1 jeżeli historia jest pusta
+     */
+    long last() {
+        return entries.isEmpty() ? -1 : entries.get(entries.size() - 1)
+                .generation;
+    }
+
+    /**
+     * Numer zapamiętanego pokolenia bezpośrednio przed podanym - pokolenia
+     * nie muszą być kolejne, np. gdy model liczy po kilka pokoleń naraz.
+     *
+     * @param generation numer pokolenia
+     * @return numer wcześniejszego pokolenia albo -1 jeżeli takiego nie ma
+     */
+    long before(long generation) {
+        int index = search(generation);
+        int previous = index >= 0 ? index - 1 : -index - 2;
+        return previous >= 0 ? entries.get(previous).generation : -1;
+    }
+
+    /**
+     * Czy pokolenie jest zapamiętane.
+     *
+     * @param generation numer pokolenia
+     * @return true jeżeli można je odtworzyć metodą get
+     */
+    boolean contains(long generation) {
+        return search(generation) >= 0;
+    }
+
+    /**
+     * Odtwarza zapamiętane pokolenie.
+     *
+     * @param generation numer pokolenia
+     * @return kopia planszy w tym pokoleniu
+     * @throws IllegalArgumentException gdy pokolenia nie ma w historii
+     */
+    Generation get(long generation) {
+        int index = search(generation);
+        if (index < 0) {
+            throw new IllegalArgumentException("Pokolenia " + generation
+                    + " nie ma w historii.");
+        }
+        moveCursor(index);
+        return new Generation(generation, width, height, cursor);
+    }
+
+    /**
+     * Usuwa z historii wszystkie pokolenia nowsze niż podane, np. gdy model
+     * wrócił do tego pokolenia i liczy dalej od nowa.
+     *
+     * @param generation numer zapamiętanego pokolenia
+     * @throws IllegalArgumentException gdy pokolenia nie ma w historii
+     */
+    void truncate(long generation) {
+        int index = search(generation);
+        if (index < 0) {
+            throw new IllegalArgumentException("Pokolenia " + generation
+                    + " nie ma w historii.");
+        }
+        moveCursor(index);
+        List<Entry> removed = entries.subList(index + 1, entries.size());
+        for (Entry entry : removed) {
+            bytes -= entry.bytes();
+        }
+        removed.clear();
+        System.arraycopy(cursor, 0, newest, 0, cursor.length);
+        sinceKeyframe = 0;
+        while (entries.get(index - sinceKeyframe).keyframe == null) {
+            sinceKeyframe++;
+        }
+    }
+
+    private int search(long generation) {
+        int low = 0;
+        int high = entries.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long found = entries.get(middle).generation;
+            if (found < generation) {
+                low = middle + 1;
+            } else if (found > generation) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -low - 1;
+    }
+
+    /**
+     * Odtwarza w cursor pokolenie numer index najkrótszą drogą: od ostatnio
+     * odtworzonego pokolenia, od najbliższej wcześniejszej klatki kluczowej
+     * albo od najbliższej późniejszej - idąc wtedy wstecz.
+     */
+    private void moveCursor(int index) {
+        int earlier = index;
+        while (entries.get(earlier).keyframe == null) {
+            earlier--;
+        }
+        int later = index;
+        while (later < entries.size() && entries.get(later).keyframe == null) {
+            later++;
+        }
+        int fromCursor = cursorIndex >= 0
+                ? Math.abs(index - cursorIndex) : Integer.MAX_VALUE;
+        int fromEarlier = index - earlier;
+        int fromLater = later < entries.size()
+                ? later - index : Integer.MAX_VALUE;
+
+        if (fromEarlier < fromCursor && fromEarlier <= fromLater) {
+            cursorIndex = load(earlier);
+        } else if (fromLater < fromCursor) {
+            cursorIndex = load(later);
+        }
+        for (; cursorIndex < index; cursorIndex++) {
+            apply(cursor, entries.get(cursorIndex + 1).delta);
+        }
+        for (; cursorIndex > index; cursorIndex--) {
+            apply(cursor, entries.get(cursorIndex).delta);
+        }
+    }
+
+    private int load(int index) {
+        Arrays.fill(cursor, 0L);
+        apply(cursor, entries.get(index).keyframe);
+        return index;
+    }
+
+    /**
+     * Różnica (XOR) dwóch plansz, bez ciągów zer. Wynik to kolejne bloki:
+     * nagłówek - liczba pominiętych słów zerowych w starszych 32 bitach
+     * i liczba słów niezerowych w młodszych - a za nim te słowa niezerowe.
+     * Pusta plansza (before == null) daje całą planszę after.
+     */
+    private long[] encode(long[] before, long[] after) {
+        int length = 0;
+        int skipped = 0;
+        int i = 0;
+        while (i < after.length) {
+            long word = before != null ? before[i] ^ after[i] : after[i];
+            if (word == 0) {
+                skipped++;
+                i++;
+                continue;
+            }
+            int header = length++;
+            int count = 0;
+            for (; i < after.length; i++) {
+                word = before != null ? before[i] ^ after[i] : after[i];
+                if (word == 0) {
+                    break;
+                }
+                scratch[length++] = word;
+                count++;
+            }
+            scratch[header] = (long) skipped << 32 | count;
+            skipped = 0;
+        }
+        return Arrays.copyOf(scratch, length);
+    }
+
+    /**
+     * Nakłada różnicę (patrz encode) na planszę.
+     */
+    private static void apply(long[] words, long[] delta) {
+        int position = 0;
+        int i = 0;
+        while (i < delta.length) {
+            long header = delta[i++];
+            position += (int) (header >>> 32);
+            int count = (int) header;
+            for (int end = i + count; i < end; i++) {
+                words[position++] ^= delta[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.util.Arrays;
+
+/**
+ * Tablica mieszająca (hash table) odwzorowująca liczby long na liczby long.
+ *
+ * Dlaczego nie HashMap&lt;Long, Long&gt;? Bo HashMap przechowuje obiekty:
+ * każdy klucz i każda wartość to osobny obiekt Long, a każdy wpis to jeszcze
+ * jeden obiekt. Tutaj klucze i wartości leżą po prostu w dwóch tablicach
+ * long[], a kolizje są rozwiązywane adresowaniem otwartym (open addressing)
+ * z próbkowaniem liniowym - przy kolizji sprawdzamy kolejną pozycję tablicy.
+ *
+ * Klucz EMPTY jest zarezerwowany i oznacza wolne miejsce w tablicy. Mapa nie
+ * obsługuje usuwania pojedynczych kluczy, można ją tylko wyczyścić w całości.
+ *
+ * @author Sławomir Marczyński
+ */
+class LongLongMap {
+
+    static final long EMPTY = Long.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private long[] values;
+    private int size;
+
+    LongLongMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Miesza bity klucza tak, aby klucze różniące się niewiele (np. sąsiednie
+     * współrzędne) trafiały w odległe miejsca tablicy.
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int indexOf(long key) {
+        int mask = keys.length - 1;
+        int index = hash(key) & mask;
+        while (keys[index] != EMPTY && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * Zwraca wartość dla klucza.
+     *
+     * @param key klucz
+     * @return wartość albo 0 jeżeli klucza nie ma w mapie
+     */
+    long get(long key) {
+        int index = indexOf(key);
+        return keys[index] == key ? values[index] : 0;
+    }
+
+    boolean containsKey(long key) {
+        return keys[indexOf(key)] == key;
+    }
+
+    /**
+     * Wpisuje wartość dla klucza, zastępując poprzednią.
+     *
+     * @param key klucz, różny od EMPTY
+     * @param value wartość
+     */
+    void put(long key, long value) {
+        int index = indexOf(key);
+        if (keys[index] != key) {
+
+            // Tablica nie może się zapełnić więcej niż w połowie, inaczej
+            // próbkowanie liniowe zaczyna trwać bardzo długo.
+            //
+            if (2 * (size + 1) > keys.length) {
+                grow();
+                index = indexOf(key);
+            }
+            keys[index] = key;
+            size++;
+        }
+        values[index] = value;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(2 * oldKeys.length);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Usuwa wszystkie wpisy. Jeżeli tablica jest dużo większa niż trzeba dla
+     * expectedSize wpisów, to jest zmniejszana - dzięki temu zajęta pamięć
+     * nadąża także za malejącą liczbą wpisów.
+     *
+     * @param expectedSize spodziewana liczba wpisów po wyczyszczeniu
+     */
+    void clear(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2 * expectedSize) {
+            capacity *= 2;
+        }
+        if (keys.length > 4 * capacity) {
+            allocate(capacity);
+        } else {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Zamiast iteratora (który byłby obiektem, a do tego zwracałby obiekty
+    // Long) udostępniamy wprost pozycje tablicy: od 0 do capacity() - 1,
+    // przy czym pozycja jest zajęta gdy keyAt(i) != EMPTY.
+    //
+    int capacity() {
+        return keys.length;
+    }
+
+    long keyAt(int index) {
+        return keys[index];
+    }
+
+    long valueAt(int index) {
+        return values[index];
+    }
+}
@@ -23,6 +23,12 @@
  */
 package minilife;
 
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * Klasa będąca modelem "gry w życie" ze zmienionymi regułami.
  *
@@ -32,13 +38,13 @@ package minilife;
  * sama w następnym cyklu jest zajęta; ale jeżeli komórka jest otoczona przez
  * zajęte komórki to jest opróżniana (przestaje być zajęta). Oczywiście nic nie
  * stoi na przeszkodzie aby te reguły zastąpić orginalnymi regułami gry life
- * (patrz Wikipedia), jednak nie jest to najważniejsze. Najważniejsze jest
- * zrozumieć jak można podzielić program na współpracujące ze sobą klasy i jak
- * te klasy ze sobą współpracują.
+ * (patrz Wikipedia i klasa Rule, np. opcja --rule=B3/S23), jednak nie jest
+ * to najważniejsze. Najważniejsze jest zrozumieć jak można podzielić program
+ * na współpracujące ze sobą klasy i jak te klasy ze sobą współpracują.
  *
  * @author Sławomir Marczyński
  */
-class Model {
+class Model implements Board, AutoCloseable {
 
     // Po co są width i height, skoro moglibyśmy przechowywać całe options
     // jakie dostaje konstruktor? Mając model możemy po prostu napisać
@@ -49,55 +55,150 @@ class Model {
     //
     final int width;
     final int height;
-    private boolean[][] board;
-    private boolean[][] updated1;
-    private boolean[][] updated2;
 
-    Model(Options options) {
+    // Sam model nie przechowuje planszy - robi to silnik (engine). Model jest
+    // tylko "fasadą", dzięki której reszta programu (np. View) nie musi
+    // wiedzieć jaki silnik został wybrany w opcjach.
+    //
+    private final Engine engine;
+    private final Boundary boundary;
+    private final Rule rule;
 
-        this.width = options.width;
-        this.height = options.height;
+    // Numer bieżącego pokolenia, tj. ile kroków ewolucji już wykonano.
+    //
+    private long generation;
 
-        board = new boolean[height][width];
+    // Wykrywanie stanu ustalonego i cykli, null jeżeli wyłączone (opcja
+    // --detect-cycles), bo liczenie skrótu planszy w niektórych silnikach
+    // kosztuje prawie tyle co samo liczenie pokolenia.
+    //
+    private CycleDetector cycles;
 
-        // Teraz ciekawostka - tablica board jest wypełniona wartościami false,
-        // bo jej elementy są typu boolean. Nie jest tak jednak gdybyśmy mieli
-        // tablicę elementów Boolean (dużą literą), bo wtedy domyślne jest null.
-        //
-        // Dlatego tym razem niepotrzebne jest inicjalizowanie elementów takie
-        // jak poniżej w komentarzu:
+    // Historia pokoleń (opcja --history), null jeżeli wyłączona.
+    //
+    private final History history;
+
+    // Ostatni widok planszy wydany przez view(), null jeżeli już skopiowany.
+    // Słaba referencja nie przeszkadza usunąć widoku, którego nikt już nie
+    // używa - a takiego widoku nie trzeba kopiować.
+    //
+    private WeakReference<Generation> shared;
+
+    /**
+     * Tworzy model z planszą początkową: wczytaną z pliku, jeżeli w opcjach
+     * podano --load=plik, z wzorami z opcji --pattern, albo z jedną zajętą
+     * komórką. Wzory można też nałożyć na planszę wczytaną z pliku.
+     *
+     * @param options opcje programu
+     * @throws IOException gdy nie udało się wczytać planszy albo wzoru
+     * z pliku
+     */
+    Model(Options options) throws IOException {
+
+        // Rozmiary planszy wczytanej z pliku są takie jak w pliku, a nie takie
+        // jak w opcjach - dlatego najpierw odczytujemy nagłówek pliku.
         //
-        //        for (int row = 0; row < height; row++) {
-        //            for (int column = 0; column < width; column++) {
-        //                board[row][column] = false;
-        //            }
-        //        }
+        Snapshot snapshot = options.load != null
+                ? Snapshot.open(options.load) : null;
 
-        /*
-         * Ustawienie początkowe musi mieć jakieś elementy o wartości true,
-         * inaczej plansza będzie cały czas pusta (ex nihilo nihili).
-         */
-        board[5][5] = true;
-    }
+        this.width = snapshot != null ? snapshot.width : options.width;
+        this.height = snapshot != null ? snapshot.height : options.height;
 
-    private boolean isValidCell(int row, int column) {
-        return row >= 0 && row < height && column >= 0 && column < width;
+        boundary = options.boundary;
+        rule = options.rule;
+        engine = createEngine(options, width, height);
+        try {
+            if (snapshot != null) {
+                snapshot.restore(engine);
+                generation = snapshot.generation;
+            } else if (options.patterns.isEmpty()) {
+
+                /*
+                 * Ustawienie początkowe musi mieć jakieś elementy o wartości
+                 * true, inaczej plansza będzie cały czas pusta (ex nihilo
+                 * nihili).
+                 */
+                engine.setCell(5, 5, true);
+            }
+            for (PatternFile pattern : options.patterns) {
+                pattern.place(engine);
+            }
+        } catch (IOException | RuntimeException exception) {
+            engine.close();
+            throw exception;
+        }
+
+        cycles = options.detectCycles ? new CycleDetector() : null;
+        if (cycles != null) {
+            cycles.record(generation, engine.hash());
+        }
+
+        history = options.history > 0 ? new History(width, height,
+                options.keyframeEvery, options.history * (1L << 20)) : null;
+        if (history != null) {
+            history.record(engine, generation);
+        }
     }
 
     /**
-     * Sprawdza czy komórka będzie pusta.
+     * Tworzy silnik wybrany w opcjach.
      *
-     * @param row
-     * @param column
-     * @return true jeżeli komórka będzie pusta i dostępna, false jeżeli coś w
-     * niej będzie, także false jeżeli współrzędne (row, column) określają
-     * lokację poza planszą
+     * @param options opcje programu
+     * @param width szerokość planszy
+     * @param height wysokość planszy
+     * @return nowy silnik z pustą planszą
+     * @throws IOException gdy nie udało się utworzyć pliku roboczego silnika
      */
-    private boolean isEmptyCell(int row, int column) {
-        if (isValidCell(row, column)) {
-            return !board[row][column]; // ! oznacza zaprzeczenie
+    static Engine createEngine(Options options, int width, int height)
+            throws IOException {
+        Boundary boundary = options.boundary;
+        switch (options.engine) {
+            case Options.BITBOARD_ENGINE:
+                if (options.workers > 1 && options.threads == 1
+                        && options.block == 1) {
+                    return new DistributedEngine(width, height,
+                            options.workers, boundary);
+                }
+                if (options.threads > 1) {
+                    return new ParallelEngine(width, height,
+                            options.threads, boundary);
+                }
+                if (options.block > 1) {
+                    return new BlockedEngine(width, height, options.block,
+                            boundary);
+                }
+                return new BitboardEngine(width, height, boundary);
+            case Options.TILED_ENGINE:
+                return new TiledEngine(width, height, boundary);
+            case Options.SPARSE_ENGINE:
+                return new SparseEngine(width, height);
+            case Options.HASHLIFE_ENGINE:
+                return new HashlifeEngine(width, height, options.rule);
+            case Options.SWAR_ENGINE:
+                return new SwarEngine(width, height, boundary);
+            case Options.OFF_HEAP_ENGINE:
+                return options.offHeapFile != null
+                        ? OffHeapEngine.mapped(width, height, boundary,
+                                options.offHeapFile)
+                        : new OffHeapEngine(width, height, boundary);
+            default:
+                return new ArrayEngine(width, height, boundary,
+                        options.rule);
         }
-        return false;
+    }
+
+    private boolean isValidCell(int row, int column) {
+        return row >= 0 && row < height && column >= 0 && column < width;
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
     }
 
     /**
@@ -109,85 +210,293 @@ class Model {
      * niej jest, także false jeżeli współrzędne (row, column) określają lokację
      * poza planszą
      */
-    boolean isFilledCell(int row, int column) {
+    @Override
+    public boolean isFilledCell(int row, int column) {
         if (isValidCell(row, column)) {
-            return board[row][column];
+            return engine.isFilledCell(row, column);
         }
         return false;
     }
 
+    /**
+     * Odczytuje cały wiersz planszy jako bity upakowane w liczbach long, patrz
+     * Board.readRow.
+     *
+     * @param row numer wiersza, od 0 do height - 1
+     * @param words tablica na co najmniej (width + 63) / 64 słów
+     */
+    @Override
+    public void readRow(int row, long[] words) {
+        engine.readRow(row, words);
+    }
+
+    /**
+     * Liczy zajęte komórki w prostokącie, patrz Board.countFilled.
+     *
+     * @param top pierwszy wiersz
+     * @param left pierwsza kolumna
+     * @param bottom wiersz za ostatnim
+     * @param right kolumna za ostatnią
+     * @return liczba zajętych komórek
+     */
+    @Override
+    public long countFilled(int top, int left, int bottom, int right) {
+        return engine.countFilled(top, left, bottom, right);
+    }
+
     /**
      * Jeden krok w ewolucji automatu komórkowego.
      */
     void evolve() {
+        detachView();
+        engine.evolve();
+        generation++;
+        if (cycles != null) {
+            cycles.record(generation, engine.hash());
+        }
+        if (history != null) {
+            history.record(engine, generation);
+        }
+    }
 
-        /*
-         * W tablicy updated, którą tworzymy jako tak samo dużą jak board,
-         * będziemy gromadzili nowy stan planszy bez naruszania tablicy board.
-         * Po aktualizacji - zastąpimy tablicę board tablicą update.
-         *
-         * UWAGA, nie zadziała tu prawdłowo klonowanie tablicy
-         *
-         *      boolean[][] updated = board.clone();
-         *
-         * ponieważ clone() jest płytką kopią i robi niezupełnie to co mogłoby
-         * się nam wydawać.
-         */
-        boolean[][] updated = new boolean[height][width];
-
-        /*
-         * Po pierwsze, najpierw wrzucamy do komórki to co było
-         */
-        for (int row = 0; row < height; row++) {
-            for (int column = 0; column < width; column++) {
-                updated[row][column] = board[row][column];
+    /**
+     * Wiele kroków w ewolucji automatu komórkowego.
+     *
+     * Gdy wykrywanie cykli jest włączone, to liczymy krok po kroku aż do
+     * wykrycia cyklu - a potem już tylko (generations - wykonane) mod okres
+     * kroków, bo pozostałe pełne obiegi cyklu i tak nic by nie zmieniły.
+     * Skrót działa dopiero od początku cyklu: model cofnięty (rewind) przed
+     * początek wykrytego cyklu najpierw do niego dochodzi.
+     *
+     * @param generations liczba pokoleń
+     */
+    void evolve(long generations) {
+        detachView();
+        if (cycles == null) {
+            engine.evolve(generations);
+            generation += generations;
+        } else {
+            while (generations > 0 && !cycles.isPeriodic()) {
+                evolve();
+                generations--;
+            }
+            if (generations > 0 && generation < cycles.getCycleStart()) {
+                long steps = Math.min(generations,
+                        cycles.getCycleStart() - generation);
+                engine.evolve(steps);
+                generation += steps;
+                generations -= steps;
             }
+            if (generations > 0) {
+                engine.evolve(generations % cycles.getPeriod());
+                generation += generations;
+            }
+        }
+        if (history != null && generation > history.last()) {
+            history.record(engine, generation);
         }
+    }
+
+    /**
+     * Numer bieżącego pokolenia.
+     *
+     * @return ile kroków ewolucji wykonano od pokolenia zerowego
+     */
+    long getGeneration() {
+        return generation;
+    }
 
-        /*
-         * Po drugie, jeżeli którakolwiek z sąsiednich komórek na
-         * planszy jest zajęta, to komórka też będzie zajęta...
-         */
+    /**
+     * Statystyki bieżącego pokolenia: liczba zajętych komórek, prostokąt,
+     * w którym leżą, oraz ile komórek zajęto i opróżniono w ostatnim kroku.
+     *
+     * Silniki array, bitboard i tiled zbierają je w trakcie evolve, więc po
+     * pierwszym wywołaniu kolejne nie wymagają przeglądania planszy. Pozostałe
+     * silniki przeglądają całą planszę przy każdym wywołaniu i nie wiedzą ile
+     * komórek się zmieniło.
+     *
+     * @return statystyki (kopia, którą można dowolnie zmieniać)
+     */
+    Statistics getStatistics() {
+        return engine.statistics();
+    }
+
+    /**
+     * Historia zapamiętanych pokoleń (opcja --history=MB). Zapamiętywane jest
+     * każde pokolenie, po którym model się zatrzymał: przy evolve() każde,
+     * a przy evolve(generations) tylko ostatnie z nich.
+     *
+     * @return historia albo null jeżeli jest wyłączona
+     */
+    History getHistory() {
+        return history;
+    }
+
+    /**
+     * Wraca do zapamiętanego pokolenia, zapominając wszystkie późniejsze
+     * - dalsza ewolucja liczy je od nowa.
+     *
+     * @param generation numer pokolenia z historii
+     * @throws IllegalStateException gdy historia jest wyłączona
+     * @throws IllegalArgumentException gdy pokolenia nie ma w historii
+     */
+    void rewind(long generation) {
+        if (history == null) {
+            throw new IllegalStateException("Historia jest wyłączona.");
+        }
+        Generation past = history.get(generation);
+        detachView();
+        long[] words = new long[BitboardEngine.wordsPerRow(width)];
         for (int row = 0; row < height; row++) {
-            for (int column = 0; column < width; column++) {
-
-                // Nie musielibyśmy definiować a, b itd. - ale znakomicie
-                // ułatwią one nam pracę - patrz instrukcje if poniżej.
-                //
-                boolean a = isFilledCell(row - 1, column);
-                boolean b = isFilledCell(row + 1, column);
-                boolean c = isFilledCell(row, column - 1);
-                boolean d = isFilledCell(row, column + 1);
-
-                if (a || b || c || d) {
-                    updated[row][column] = true;
-                }
-            }
+            past.readRow(row, words);
+            engine.writeRow(row, words);
         }
+        history.truncate(generation);
+        this.generation = generation;
 
-        /*
-         * ... chyba że (po trzecie) żadna z sąsiednich komórek nie jest
-         * pusta.
-         */
-        for (int row = 0; row < height; row++) {
-            for (int column = 0; column < width; column++) {
-
-                // Nie musielibyśmy definiować ea, eb itd. - ale znakomicie
-                // ułatwią one nam pracę - patrz instrukcje if poniżej.
-                //
-                boolean a = isEmptyCell(row - 1, column);
-                boolean b = isEmptyCell(row + 1, column);
-                boolean c = isEmptyCell(row, column - 1);
-                boolean d = isEmptyCell(row, column + 1);
-
-                if (!a && !b && !c && !d) {
-                    updated[row][column] = false;
-                }
+        // Wykryty cykl nadal jest prawdziwy (ewolucja jest deterministyczna),
+        // ale niedokończone wykrywanie pamięta skróty "przyszłych" pokoleń
+        // - zaczynamy je od nowa.
+        //
+        if (cycles != null && !cycles.isPeriodic()) {
+            cycles = new CycleDetector();
+            cycles.record(generation, engine.hash());
+        }
+    }
 
-            }
+    /**
+     * Cofa model o jeden krok - do poprzedniego zapamiętanego pokolenia.
+     *
+     * @return false jeżeli wcześniejszego pokolenia nie ma w historii
+     */
+    boolean stepBack() {
+        long previous = history != null ? history.before(generation) : -1;
+        if (previous < 0) {
+            return false;
         }
+        rewind(previous);
+        return true;
+    }
 
-        board = updated;
+    /**
+     * Pierwsze pokolenie wykrytego cyklu (albo stanu ustalonego).
+     *
+     * @return numer pokolenia albo -1 jeżeli cyklu nie wykryto
+     */
+    long getCycleStart() {
+        return cycles != null ? cycles.getCycleStart() : -1;
+    }
+
+    /**
+     * Okres wykrytego cyklu, 1 dla stanu ustalonego.
+     *
+     * @return okres albo 0 jeżeli cyklu nie wykryto
+     */
+    long getCyclePeriod() {
+        return cycles != null ? cycles.getPeriod() : 0;
+    }
+
+    /**
+     * Bieżące pokolenie jako widok kopiowany przy zapisie: nic nie kopiuje
+     * dopóki model się nie zmieni, a przed zmianą kopiuje planszę do widoku.
+     * Widok można więc zatrzymać na dowolnie długo. Widok, który został już
+     * usunięty przez odśmiecacz pamięci, nie jest kopiowany.
+     *
+     * Widok czyta planszę silnika bez synchronizacji - do innego wątku wolno
+     * go przekazać dopiero po wywołaniu detach() albo zmianie modelu.
+     *
+     * @return widok bieżącego pokolenia
+     */
+    Generation view() {
+        Generation view = shared != null ? shared.get() : null;
+        if (view == null || view.number != generation) {
+            detachView();
+            view = Generation.view(engine, generation);
+            shared = new WeakReference<>(view);
+        }
+        return view;
+    }
+
+    private void detachView() {
+        Generation view = shared != null ? shared.get() : null;
+        if (view != null) {
+            view.detach();
+        }
+        shared = null;
+    }
+
+    /**
+     * Leniwy strumień pokoleń: bieżące, potem co step pokoleń następne.
+     * Pokolenie jest liczone dopiero wtedy, gdy strumień po nie sięgnie,
+     * więc np.
+     *
+     * <pre>
+     * model.generations(10)
+     *         .takeWhile(g -&gt; g.countFilled(0, 0, h, w) &gt; 0)
+     *         .limit(100)
+     *         .forEach(...)
+     * </pre>
+     *
+     * policzy co najwyżej 990 kroków, a pomiędzy co dziesiątymi pokoleniami
+     * nie kopiuje planszy. Elementy strumienia są widokami (patrz view), więc
+     * wolno je zatrzymać, np. zebrać do listy - a te porzucone kopiowane są
+     * tylko wtedy, gdy odśmiecacz pamięci nie zdążył ich usunąć.
+     *
+     * Strumień zmienia model, ale tylko o pokolenia, po które sięgnął
+     * - dopóki jest używany, model nie może być zmieniany w inny sposób.
+     * Strumień równoległy (parallel) musi jednak liczyć pokolenia na zapas,
+     * zanim ktokolwiek po nie sięgnie, bo dzieli je na porcje dla innych
+     * wątków. Dlatego przy pierwszym podziale kopiuje planszę (patrz
+     * copyEngine) i dalej liczy już tylko na kopii: model zostaje przy
+     * pokoleniu pobranym przed podziałem - zwykle przy bieżącym, bo strumień
+     * równoległy zaczyna od podziału - a policzone na zapas pokolenia, np.
+     * odrzucone przez limit albo takeWhile, przepadają razem z kopią.
+     *
+     * @param step co ile pokoleń, co najmniej 1
+     * @return nieskończony strumień pokoleń
+     */
+    Stream<Generation> generations(long step) {
+        return StreamSupport.stream(new Generations(this, step), false);
+    }
+
+    /**
+     * Kopia bieżącej planszy w nowym, niezależnym od modelu silniku: bitboard
+     * dla reguły minilife i array dla każdej innej (tak jak w Ensemble), z tym
+     * samym brzegiem. Wyniki ewolucji są takie same jak w silniku modelu, ale
+     * ten może być np. rozproszony albo korzystać z pliku.
+     *
+     * @return nowy silnik z kopią planszy
+     */
+    Engine copyEngine() {
+        Engine copy = rule == Rule.MINILIFE
+                ? new BitboardEngine(width, height, boundary)
+                : new ArrayEngine(width, height, boundary, rule);
+        long[] words = new long[BitboardEngine.wordsPerRow(width)];
+        for (int row = 0; row < height; row++) {
+            engine.readRow(row, words);
+            copy.writeRow(row, words);
+        }
+        return copy;
+    }
+
+    /**
+     * Zwalnia zasoby silnika (patrz Engine.close). Po close modelu nie wolno
+     * już używać.
+     */
+    @Override
+    public void close() {
+        engine.close();
+    }
+
+    /**
+     * Zapisuje planszę do pliku, z którego można ją potem wczytać opcją
+     * --load=plik.
+     *
+     * @param path ścieżka do pliku
+     * @throws IOException gdy nie udało się zapisać pliku
+     */
+    void save(Path path) throws IOException {
+        Snapshot.save(path, engine, generation);
     }
 
 }
@@ -0,0 +1,323 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Silnik przechowujący planszę poza stertą Javy (off-heap), dzięki czemu
+ * plansza może być dużo większa niż sterta - nawet dziesiątki gigabajtów.
+ *
+ * Komórki są zapisane tak jak w BitboardEngine, po 64 w liczbie long, ale
+ * wiersze nie są osobnymi tablicami long[], tylko leżą jeden za drugim
+ * w dużych blokach pamięci (ByteBuffer.allocateDirect) albo w pliku
+ * odwzorowanym w pamięci (FileChannel.map). Odśmiecacz (garbage collector)
+ * nie przegląda ich zawartości, a każdy wiersz to tylko przesunięcie w bloku
+ * - bez nagłówka tablicy i bez wskaźnika do niego.
+ *
+ * Jeden ByteBuffer może mieć najwyżej 2 GB, dlatego plansza jest podzielona
+ * na bloki po najwyżej CHUNK_BYTES bajtów, a każdy blok zawiera całe wiersze.
+ * Nowe API do pamięci spoza sterty (MemorySegment, Foreign Function
+ * &amp; Memory API) nie ma tego ograniczenia, ale w Javie 17 jest dopiero
+ * modułem inkubacyjnym - ByteBuffer działa na każdej maszynie JVM.
+ *
+ * Bloki przydzielone przez allocateDirect liczą się do limitu
+ * -XX:MaxDirectMemorySize (domyślnie tyle, ile sterty), więc dla naprawdę
+ * dużych plansz trzeba ten limit podnieść - albo użyć pliku (opcja
+ * --off-heap-file=plik), który system operacyjny sam wczytuje do pamięci
+ * i z niej usuwa, kawałek po kawałku. Plik jest tylko miejscem roboczym na
+ * dwie plansze (bieżącą i następną), a nie zapisem planszy - do tego służy
+ * opcja --checkpoint.
+ *
+ * Pokolenie liczymy wiersz po wierszu: trzy sąsiednie wiersze są kopiowane
+ * do zwykłych tablic long[] (za każdym razem tych samych), nowy wiersz liczy
+ * ten sam kod co w BitboardEngine, a wynik jest kopiowany z powrotem.
+ *
+ * @author Sławomir Marczyński
+ */
+class OffHeapEngine implements Engine {
+
+    // Tak jak w klasie Snapshot - bloki są dużo mniejsze niż 2 GB, aby
+    // odwzorowanie pliku nie wymagało jednego ogromnego, ciągłego obszaru
+    // przestrzeni adresowej.
+    //
+    static final long CHUNK_BYTES = 1L << 30;
+
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    private final int rowsPerChunk;
+    private final Boundary boundary;
+
+    /*
+     * Plansza bieżąca i następna, każda jako bloki pamięci widziane jako
+     * liczby long.
+     */
+    private LongBuffer[] board;
+    private LongBuffer[] updated;
+
+    /*
+     * Nowy wiersz liczy obiekt BitboardEngine o wysokości jednego wiersza
+     * - jego własna plansza nie jest używana, tylko metoda evolveRow, która
+     * zna szerokość planszy i jej brzeg.
+     */
+    private final BitboardEngine kernel;
+    private long[] north;
+    private long[] center;
+    private long[] south;
+    private final long[] target;
+    private final long[] edge;
+
+    private boolean counting;
+    private Statistics counted = new Statistics();
+
+    /**
+     * Silnik z planszą w pamięci przydzielonej przez allocateDirect.
+     *
+     * @param width szerokość planszy
+     * @param height wysokość planszy
+     * @param boundary co jest za brzegiem planszy
+     */
+    OffHeapEngine(int width, int height, Boundary boundary) {
+        this(width, height, boundary, null);
+    }
+
+    private OffHeapEngine(int width, int height, Boundary boundary,
+            LongBuffer[][] boards) {
+        this.width = width;
+        this.height = height;
+        this.boundary = boundary;
+        wordsPerRow = BitboardEngine.wordsPerRow(width);
+        rowsPerChunk = rowsPerChunk(wordsPerRow);
+        if (boards != null) {
+            board = boards[0];
+            updated = boards[1];
+        } else {
+            board = allocate(width, height);
+            updated = allocate(width, height);
+        }
+        kernel = new BitboardEngine(width, 1, boundary);
+        north = new long[wordsPerRow];
+        center = new long[wordsPerRow];
+        south = new long[wordsPerRow];
+        target = new long[wordsPerRow];
+        edge = new long[wordsPerRow];
+    }
+
+    /**
+     * Silnik z planszą w pliku odwzorowanym w pamięci. Plik jest tworzony
+     * (albo skracany do zera) i ma rozmiar dwóch plansz; na systemach, które
+     * to umożliwiają, jest to plik rzadki (sparse), więc miejsce na dysku
+     * zajmują tylko zapisane fragmenty.
+     *
+     * @param width szerokość planszy
+     * @param height wysokość planszy
+     * @param boundary co jest za brzegiem planszy
+     * @param path ścieżka do pliku roboczego
+     * @return nowy silnik z pustą planszą
+     * @throws IOException gdy pliku nie da się utworzyć albo odwzorować
+     */
+    static OffHeapEngine mapped(int width, int height, Boundary boundary,
+            Path path) throws IOException {
+        int wordsPerRow = BitboardEngine.wordsPerRow(width);
+        int rowsPerChunk = rowsPerChunk(wordsPerRow);
+        long rowBytes = (long) wordsPerRow * Long.BYTES;
+        long boardBytes = rowBytes * height;
+        LongBuffer[][] boards = new LongBuffer[2][chunks(height, rowsPerChunk)];
+
+        // Odwzorowanie pozostaje ważne także po zamknięciu pliku.
+        //
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int b = 0; b < 2; b++) {
+                for (int chunk = 0; chunk < boards[b].length; chunk++) {
+                    long first = (long) chunk * rowsPerChunk;
+                    long rows = Math.min(rowsPerChunk, height - first);
+                    boards[b][chunk] = channel.map(
+                            FileChannel.MapMode.READ_WRITE,
+                            b * boardBytes + first * rowBytes, rows * rowBytes)
+                            .order(ByteOrder.nativeOrder()).asLongBuffer();
+                }
+            }
+        }
+        return new OffHeapEngine(width, height, boundary, boards);
+    }
+
+    private static int rowsPerChunk(int wordsPerRow) {
+        long rowBytes = (long) wordsPerRow * Long.BYTES;
+        return (int) Math.max(1, CHUNK_BYTES / rowBytes);
+    }
+
+    private static int chunks(int height, int rowsPerChunk) {
+        return (height + rowsPerChunk - 1) / rowsPerChunk;
+    }
+
+    private static LongBuffer[] allocate(int width, int height) {
+        int wordsPerRow = BitboardEngine.wordsPerRow(width);
+        int rowsPerChunk = rowsPerChunk(wordsPerRow);
+        LongBuffer[] chunks = new LongBuffer[chunks(height, rowsPerChunk)];
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            int rows = Math.min(rowsPerChunk, height - chunk * rowsPerChunk);
+            chunks[chunk] = ByteBuffer
+                    .allocateDirect(rows * wordsPerRow * Long.BYTES)
+                    .order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        return chunks;
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public boolean isFilledCell(int row, int column) {
+        long word = board[row / rowsPerChunk].get(index(row, column));
+        return (word & (1L << column)) != 0;
+    }
+
+    @Override
+    public void setCell(int row, int column, boolean filled) {
+        LongBuffer chunk = board[row / rowsPerChunk];
+        int index = index(row, column);
+        long word = chunk.get(index);
+        long bit = 1L << column;
+        chunk.put(index, filled ? word | bit : word & ~bit);
+        counting = false;
+    }
+
+    /**
+     * Położenie słowa z komórką (row, column) w bloku zawierającym wiersz.
+     */
+    private int index(int row, int column) {
+        return (row % rowsPerChunk) * wordsPerRow + (column >>> 6);
+    }
+
+    @Override
+    public void readRow(int row, long[] words) {
+        read(board, row, words);
+    }
+
+    @Override
+    public void writeRow(int row, long[] words) {
+        long last = words[wordsPerRow - 1];
+        words[wordsPerRow - 1] &= -1L >>> (-width & 63);
+        board[row / rowsPerChunk].put(index(row, 0), words, 0, wordsPerRow);
+        words[wordsPerRow - 1] = last;
+        counting = false;
+    }
+
+    @Override
+    public void mergeRow(int row, long[] words) {
+        long[] merged = new long[wordsPerRow];
+        readRow(row, merged);
+        for (int k = 0; k < wordsPerRow; k++) {
+            merged[k] |= words[k];
+        }
+        writeRow(row, merged);
+    }
+
+    private void read(LongBuffer[] source, int row, long[] words) {
+        source[row / rowsPerChunk].get(index(row, 0), words, 0, wordsPerRow);
+    }
+
+    @Override
+    public Statistics statistics() {
+        if (!counting) {
+            counted = Engine.super.statistics();
+            counting = true;
+        }
+        return counted.copy();
+    }
+
+    @Override
+    public void evolve() {
+        if (counting) {
+            counted.startGeneration();
+        }
+        read(board, 0, center);
+        long[] above = edgeRow(-1);
+        for (int row = 0; row < height; row++) {
+            long[] below;
+            if (row + 1 < height) {
+                read(board, row + 1, south);
+                below = south;
+            } else {
+                below = edgeRow(height);
+            }
+            kernel.evolveRow(above, center, below, target);
+            if (counting) {
+                counted.addRow(row, center, target, 0, wordsPerRow);
+            }
+            updated[row / rowsPerChunk].put(index(row, 0), target, 0,
+                    wordsPerRow);
+
+            // Przesuwamy okno trzech wierszy o jeden w dół, zamieniając tylko
+            // tablice - bez kopiowania.
+            //
+            long[] swap = north;
+            north = center;
+            center = south;
+            south = swap;
+            above = north;
+        }
+        if (counting) {
+            counted.finishGeneration();
+        }
+        LongBuffer[] swap = board;
+        board = updated;
+        updated = swap;
+    }
+
+    /**
+     * Wiersz spoza planszy (row = -1 albo row = height) tak jak w
+     * BitboardEngine: null przy ścianie, zera przy DEAD, a przy TORUS
+     * i MIRROR kopia odpowiedniego wiersza planszy.
+     */
+    private long[] edgeRow(int row) {
+        switch (boundary) {
+            case DEAD:
+                return kernel.zeros;
+            case TORUS:
+            case MIRROR:
+                read(board, boundary.source(row, height), edge);
+                return edge;
+            default:
+                return null;
+        }
+    }
+}
@@ -23,6 +23,15 @@
  */
 package minilife;
 
+import java.awt.GraphicsEnvironment;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
 /**
  * Różne parametry są dostarczane do programu jako łańcuchy znaków, ale to klasa
  * Options obsługuje dostarczanie ich jako odpowiednich wartości, także i wtedy
@@ -42,6 +51,50 @@ class Options {
     //
     final int width;   /* szerokość planszy */
     final int height;  /* wysokość planszy */
+    final String engine; /* nazwa silnika, patrz stałe ..._ENGINE */
+    final int threads; /* liczba wątków liczących ewolucję */
+    final int block;   /* ile pokoleń liczyć naraz w jednym pasie planszy */
+    final int workers; /* liczba procesów roboczych (osobnych maszyn JVM) */
+    final Boundary boundary; /* co jest za brzegiem planszy */
+    final Rule rule;   /* reguła automatu komórkowego */
+    final int step;    /* liczba pokoleń między kolejnymi rysunkami */
+    final long generations; /* ile pokoleń policzyć */
+    final long warmup; /* ile pokoleń policzyć przed pomiarem czasu */
+    final boolean headless; /* czy liczyć bez rysowania (tryb wsadowy) */
+    final Path report; /* plik na raport trybu wsadowego albo null */
+    final Path statistics; /* plik na statystyki kolejnych pokoleń albo null */
+    final boolean ansi; /* czy rysować tylko zmiany, sekwencjami ANSI */
+    final int viewTop; /* pierwszy rysowany wiersz planszy */
+    final int viewLeft; /* pierwsza rysowana kolumna planszy */
+    final int viewRows; /* ile wierszy planszy rysować, 0 - do brzegu */
+    final int viewColumns; /* ile kolumn planszy rysować, 0 - do brzegu */
+    final int zoom;    /* ile komórek (w pionie i w poziomie) na jeden znak */
+    final boolean swing; /* czy rysować w okienku zamiast na konsoli */
+    final int pipeline; /* pojemność kolejki pokoleń, 0 - bez potoku */
+    final int ensemble; /* liczba losowych plansz zespołu, 0 - jedna plansza */
+    final long seed;   /* ziarno generatora liczb losowych dla zespołu */
+    final int history; /* ile MB na historię pokoleń, 0 - bez historii */
+    final int keyframeEvery; /* co ile pokoleń historii cała plansza */
+    final boolean detectCycles; /* czy wykrywać stan ustalony i cykle */
+    final Path load;   /* plik z planszą początkową albo null */
+    final List<PatternFile> patterns; /* wzory do wstawienia na planszę */
+    final Path checkpoint; /* plik na zapisy kontrolne albo null */
+    final int checkpointEvery; /* co ile pokoleń zapis kontrolny */
+    final Path offHeapFile; /* plik roboczy silnika offheap albo null */
+
+    // Nazwy silników, jakie można wybrać opcją --engine=nazwa.
+    //
+    static final String ARRAY_ENGINE = "array";
+    static final String BITBOARD_ENGINE = "bitboard";
+    static final String TILED_ENGINE = "tiled";
+    static final String SPARSE_ENGINE = "sparse";
+    static final String HASHLIFE_ENGINE = "hashlife";
+    static final String SWAR_ENGINE = "swar";
+    static final String OFF_HEAP_ENGINE = "offheap";
+    static final String[] ENGINES = {
+        ARRAY_ENGINE, BITBOARD_ENGINE, TILED_ENGINE, SPARSE_ENGINE,
+        HASHLIFE_ENGINE, SWAR_ENGINE, OFF_HEAP_ENGINE
+    };
 
     /**
      * Konstruktor tworzący opcje (obiekt klasy Options) z dostarczonych mu
@@ -77,6 +130,166 @@ class Options {
         //
         int proposedWidth = DEFAULT_WIDTH;
         int proposedHeight = DEFAULT_HEIGHT;
+        String proposedEngine = ARRAY_ENGINE;
+        int proposedThreads = 1;
+        int proposedBlock = 1;
+        int proposedWorkers = 1;
+        Boundary proposedBoundary = Boundary.WALL;
+        Rule proposedRule = Rule.MINILIFE;
+        int proposedStep = 1;
+        long proposedGenerations = 10;
+        long proposedWarmup = 0;
+        boolean proposedHeadless = false;
+        Path proposedReport = null;
+        Path proposedStatistics = null;
+        boolean proposedAnsi = false;
+        int[] proposedViewport = null;
+        int proposedZoom = 1;
+        boolean proposedSwing = false;
+        int proposedPipeline = 0;
+        int proposedEnsemble = 0;
+        long proposedSeed = 1;
+        int proposedHistory = 0;
+        int proposedKeyframeEvery = 32;
+        boolean proposedDetectCycles = false;
+        Path proposedLoad = null;
+        List<PatternFile> proposedPatterns = new ArrayList<>();
+        Path proposedCheckpoint = null;
+        int proposedCheckpointEvery = 0;
+        Path proposedOffHeapFile = null;
+
+        // Parametry zaczynające się od -- są opcjami nazwanymi, np.
+        // --engine=bitboard, wszystkie pozostałe są parametrami pozycyjnymi.
+        // Opcje nazwane rozpoznajemy od razu, a pozycyjne zbieramy do listy
+        // (bez opcji nazwanych), dzięki czemu args[0] i args[1] to nadal
+        // rozmiary planszy niezależnie od tego gdzie wpisano opcje nazwane.
+        //
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int equals = arg.indexOf('=');
+                String name = equals < 0 ? arg.substring(2)
+                        : arg.substring(2, equals);
+                String value = equals < 0 ? "" : arg.substring(equals + 1);
+                switch (name) {
+                    case "engine":
+                        if (Arrays.asList(ENGINES).contains(value)) {
+                            proposedEngine = value;
+                        } else {
+                            System.err.println("Nieznany silnik: " + value);
+                        }
+                        break;
+                    case "threads":
+                        proposedThreads = parseCount(arg, value,
+                                proposedThreads);
+                        break;
+                    case "block":
+                        proposedBlock = parseCount(arg, value, proposedBlock);
+                        break;
+                    case "workers":
+                        proposedWorkers = parseCount(arg, value,
+                                proposedWorkers);
+                        break;
+                    case "boundary":
+                        try {
+                            proposedBoundary = Boundary.valueOf(
+                                    value.toUpperCase(Locale.ROOT));
+                        } catch (IllegalArgumentException exception) {
+                            System.err.println("Nieznany brzeg: " + value);
+                        }
+                        break;
+                    case "rule":
+                        try {
+                            proposedRule = Rule.parse(value);
+                        } catch (IllegalArgumentException exception) {
+                            System.err.println(exception.getMessage());
+                        }
+                        break;
+                    case "step":
+                        proposedStep = parseCount(arg, value, proposedStep);
+                        break;
+                    case "generations":
+                        proposedGenerations = parseCount(arg, value,
+                                proposedGenerations);
+                        break;
+                    case "warmup":
+                        proposedWarmup = parseCount(arg, value,
+                                proposedWarmup);
+                        break;
+                    case "headless":
+                        proposedHeadless = true;
+                        break;
+                    case "report":
+                        proposedReport = Paths.get(value);
+                        break;
+                    case "statistics":
+                        proposedStatistics = Paths.get(value);
+                        break;
+                    case "ansi":
+                        proposedAnsi = true;
+                        break;
+                    case "swing":
+                        proposedSwing = true;
+                        break;
+                    case "viewport":
+                        proposedViewport = parseViewport(arg, value,
+                                proposedViewport);
+                        break;
+                    case "zoom":
+                        proposedZoom = parseCount(arg, value, proposedZoom);
+                        break;
+                    case "pipeline":
+                        proposedPipeline = value.isEmpty()
+                                ? Pipeline.DEFAULT_CAPACITY
+                                : parseCount(arg, value,
+                                        Pipeline.DEFAULT_CAPACITY);
+                        break;
+                    case "ensemble":
+                        proposedEnsemble = parseCount(arg, value,
+                                proposedEnsemble);
+                        break;
+                    case "seed":
+                        proposedSeed = parseCount(arg, value, proposedSeed);
+                        break;
+                    case "history":
+                        proposedHistory = parseCount(arg, value,
+                                proposedHistory);
+                        break;
+                    case "keyframe-every":
+                        proposedKeyframeEvery = parseCount(arg, value,
+                                proposedKeyframeEvery);
+                        break;
+                    case "detect-cycles":
+                        proposedDetectCycles = true;
+                        break;
+                    case "load":
+                        proposedLoad = Paths.get(value);
+                        break;
+                    case "pattern":
+                        try {
+                            proposedPatterns.add(PatternFile.parse(value));
+                        } catch (IllegalArgumentException exception) {
+                            System.err.println(exception.getMessage());
+                        }
+                        break;
+                    case "checkpoint":
+                        proposedCheckpoint = Paths.get(value);
+                        break;
+                    case "checkpoint-every":
+                        proposedCheckpointEvery = parseCount(arg, value,
+                                proposedCheckpointEvery);
+                        break;
+                    case "off-heap-file":
+                        proposedOffHeapFile = Paths.get(value);
+                        break;
+                    default:
+                        System.err.println("Nieznana opcja: " + arg);
+                }
+            } else {
+                positional.add(arg);
+            }
+        }
+        args = positional.toArray(new String[0]);
 
         // Można byłoby nie dawać instrukcji if wierząc iż try-catch rozwiąże
         // wszystkie problemy w jednolity sposób (sięgnięcie po nieistniejący
@@ -85,42 +298,206 @@ class Options {
         // wyjątkową, więc spychanie obsługi tego do konstrukcji try-catch jest
         // trochę nie w stylu Javy.
         //
+        // Szerokość jest w args[0], a wysokość w args[1]. Jeżeli podano tylko
+        // szerokość, to plansza jest kwadratowa - tak jak w poprzednich
+        // wersjach programu, gdy args[0] określało oba rozmiary.
+        //
+        // Każdy parametr ma własny blok try-catch - to że nam się raz nie
+        // udało nie musi oznaczać że drugi raz też się nie uda.
+        //
         if (args.length > 0) {
             try {
-
-                // Łamiemy zasadę DRY (nie powtarzaj się) po to aby łatwiej było
-                // wprowadzać ewentualne modyfikacje: każda (z dwóch poniżej)
-                // linijka bierze jakiś argument i wyciąga sobie z niego co
-                // trzeba, a to że akurat width i height robią to samo... cóż
-                // to w przyszłych wersjach może się zmienić, np. width może
-                // wyciągać dane z args[0], a height z args[1].
-                //
-                // Zauważmy, że być może lepiej byłoby utworzyć niezależne
-                // bloki try-catch dla każdego parametru - to że nam się raz
-                // nie udało nie musi oznaczać że (gdy height będzie z args[1])
-                // drugi raz też się nie uda.
-                //
                 proposedWidth = Integer.parseUnsignedInt(args[0]);
-                proposedHeight = Integer.parseUnsignedInt(args[0]);
-
+                proposedHeight = proposedWidth;
             } catch (NumberFormatException exception) {
-
-                // Różnego rodzaju "dobre pomysły", których realizację odkładamy
-                // na później, oznacza się zwykle znacznikiem @todo tak jak
-                // to jest poniżej pokazane.
-                //
-                // @todo: zamiast uciszać wyjątek lepiej byłoby jakoś
-                //        poinformować użytkownika że podał złe parametry, np:
-                //
-                // System.err.println("Złe parametry startowe programu.");
+                System.err.println("Zła szerokość planszy: " + args[0]);
+            }
+        }
+        if (args.length > 1) {
+            try {
+                proposedHeight = Integer.parseUnsignedInt(args[1]);
+            } catch (NumberFormatException exception) {
+                System.err.println("Zła wysokość planszy: " + args[1]);
             }
         }
 
         // Tu przepisujemy proposedWidth i proposedHeight do "globalnych
         // w klasie" width i height. Możemy to zrobić, choć tylko raz, bo final.
         //
+        // Dowolną regułę liczy tylko silnik array, a silnik hashlife - każdą,
+        // w której pusta okolica pozostaje pusta. Pozostałe silniki mają
+        // regułę minilife wpisaną na sztywno w operacje bitowe.
+        //
+        boolean ruleSupported = proposedRule == Rule.MINILIFE
+                || proposedEngine.equals(ARRAY_ENGINE)
+                || proposedEngine.equals(HASHLIFE_ENGINE)
+                && proposedRule.isQuiescent();
+        if (!ruleSupported) {
+            System.err.println("Reguła " + proposedRule + " wymaga silnika "
+                    + ARRAY_ENGINE + " - używam go zamiast silnika "
+                    + proposedEngine + ".");
+            proposedEngine = ARRAY_ENGINE;
+        }
+        rule = proposedRule;
+
         width = proposedWidth;
         height = proposedHeight;
+        engine = proposedEngine;
+        threads = proposedThreads;
+        block = proposedBlock;
+        workers = proposedWorkers;
+        step = proposedStep;
+        if (proposedEnsemble > 0
+                && proposedGenerations > Ensemble.MAX_GENERATIONS) {
+            System.err.println("Opcja --ensemble pozwala policzyć najwyżej "
+                    + Ensemble.MAX_GENERATIONS + " pokoleń - tyle policzę.");
+            proposedGenerations = Ensemble.MAX_GENERATIONS;
+        }
+        generations = proposedGenerations;
+        warmup = proposedWarmup;
+        headless = proposedHeadless;
+        report = proposedReport;
+        statistics = proposedStatistics;
+        ansi = proposedAnsi;
+        viewTop = proposedViewport != null ? proposedViewport[0] : 0;
+        viewLeft = proposedViewport != null ? proposedViewport[1] : 0;
+        viewRows = proposedViewport != null ? proposedViewport[2] : 0;
+        viewColumns = proposedViewport != null ? proposedViewport[3] : 0;
+        zoom = proposedZoom;
+
+        // Bez ekranu (np. na serwerze, albo gdy java.awt.headless=true) okienka
+        // nie da się otworzyć - rysujemy wtedy na konsoli.
+        //
+        if (proposedSwing && GraphicsEnvironment.isHeadless()) {
+            System.err.println("Brak ekranu - rysuję na konsoli zamiast "
+                    + "w okienku.");
+            proposedSwing = false;
+        }
+        swing = proposedSwing;
+        pipeline = proposedPipeline;
+        ensemble = proposedEnsemble;
+        seed = proposedSeed;
+        history = proposedHistory;
+        keyframeEvery = proposedKeyframeEvery;
+        detectCycles = proposedDetectCycles;
+        load = proposedLoad;
+        patterns = Collections.unmodifiableList(proposedPatterns);
+        checkpoint = proposedCheckpoint;
+        checkpointEvery = proposedCheckpointEvery;
+        offHeapFile = proposedOffHeapFile;
+
+        // Silniki sparse i hashlife zakładają, że za brzegiem jest ściana
+        // - plansza w nich jest tylko wycinkiem nieskończonej płaszczyzny.
+        //
+        if (proposedBoundary != Boundary.WALL
+                && (engine.equals(SPARSE_ENGINE)
+                || engine.equals(HASHLIFE_ENGINE))) {
+            System.err.println("Silnik " + engine + " obsługuje tylko brzeg "
+                    + "wall.");
+            proposedBoundary = Boundary.WALL;
+        }
+        boundary = proposedBoundary;
+
+        if (threads > 1 && !engine.equals(BITBOARD_ENGINE)) {
+            System.err.println("Opcja --threads działa tylko z silnikiem "
+                    + BITBOARD_ENGINE + ".");
+        }
+        if (block > 1 && (!engine.equals(BITBOARD_ENGINE) || threads > 1)) {
+            System.err.println("Opcja --block działa tylko z jednowątkowym "
+                    + "silnikiem " + BITBOARD_ENGINE + ".");
+        }
+        if (workers > 1 && (!engine.equals(BITBOARD_ENGINE) || threads > 1
+                || block > 1)) {
+            System.err.println("Opcja --workers działa tylko z silnikiem "
+                    + BITBOARD_ENGINE + " bez opcji --threads i --block.");
+        }
+        if ((checkpoint == null) != (checkpointEvery == 0)) {
+            System.err.println("Zapis kontrolny wymaga obu opcji: "
+                    + "--checkpoint=plik i --checkpoint-every=n.");
+        }
+        if (ensemble > 0 && (threads > 1 || block > 1 || workers > 1)) {
+            System.err.println("Opcja --ensemble liczy każdą planszę w jednym "
+                    + "wątku - opcje --threads, --block i --workers nic nie "
+                    + "zmienią.");
+        }
+        if (pipeline > 0 && (headless || swing)) {
+            System.err.println("Opcja --pipeline działa tylko przy rysowaniu "
+                    + "na konsoli.");
+        }
+        if (offHeapFile != null && !engine.equals(OFF_HEAP_ENGINE)) {
+            System.err.println("Opcja --off-heap-file działa tylko z silnikiem "
+                    + OFF_HEAP_ENGINE + ".");
+        }
+    }
+
+    /**
+     * Odczytuje wartość opcji będącą liczbą dodatnią.
+     *
+     * @param arg cała opcja, np. --threads=4, potrzebna do komunikatu o błędzie
+     * @param value tekst wartości opcji, np. 4
+     * @param fallback wartość zwracana gdy value nie jest liczbą dodatnią
+     * @return odczytana liczba albo fallback
+     */
+    private static int parseCount(String arg, String value, int fallback) {
+        try {
+            int count = Integer.parseUnsignedInt(value);
+            if (count > 0) {
+                return count;
+            }
+        } catch (NumberFormatException exception) {
+            // Komunikat o błędzie jest poniżej, wspólny dla obu przypadków.
+        }
+        System.err.println("Zła wartość opcji: " + arg);
+        return fallback;
+    }
+
+    /**
+     * Odczytuje okno planszy do rysowania: cztery liczby oddzielone
+     * przecinkami - pierwszy wiersz, pierwszą kolumnę, liczbę wierszy i liczbę
+     * kolumn, np. --viewport=1000,2000,40,60.
+     *
+     * @param arg cała opcja, potrzebna do komunikatu o błędzie
+     * @param value tekst wartości opcji
+     * @param fallback wartość zwracana gdy value nie jest poprawnym oknem
+     * @return odczytane okno albo fallback
+     */
+    private static int[] parseViewport(String arg, String value,
+            int[] fallback) {
+        String[] parts = value.split(",");
+        if (parts.length == 4) {
+            try {
+                int[] window = new int[4];
+                for (int i = 0; i < 4; i++) {
+                    window[i] = Integer.parseInt(parts[i].trim());
+                }
+                if (window[0] >= 0 && window[1] >= 0 && window[2] > 0
+                        && window[3] > 0) {
+                    return window;
+                }
+            } catch (NumberFormatException exception) {
+                // Komunikat o błędzie jest poniżej, wspólny dla obu przypadków.
+            }
+        }
+        System.err.println("Zła wartość opcji: " + arg);
+        return fallback;
+    }
+
+    /**
+     * Odczytuje wartość opcji będącą liczbą nieujemną typu long, np. liczbę
+     * pokoleń.
+     *
+     * @param arg cała opcja, potrzebna do komunikatu o błędzie
+     * @param value tekst wartości opcji
+     * @param fallback wartość zwracana gdy value nie jest liczbą
+     * @return odczytana liczba albo fallback
+     */
+    private static long parseCount(String arg, String value, long fallback) {
+        try {
+            return Long.parseUnsignedLong(value);
+        } catch (NumberFormatException exception) {
+            System.err.println("Zła wartość opcji: " + arg);
+            return fallback;
+        }
     }
 
     // Jeżeli ktoś doczytał do tego miejsca, to być może zauważył, że realnie
@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Wielowątkowa odmiana silnika BitboardEngine.
+ *
+ * Plansza jest dzielona na poziome pasy (bands) wierszy, a każdy pas jest
+ * liczony jako osobne zadanie w puli wątków ForkJoinPool. Wynik jest dokładnie
+ * taki sam jak przy liczeniu w jednym wątku, bo każdy wiersz nowego pokolenia
+ * zależy tylko od trzech wierszy poprzedniego pokolenia.
+ *
+ * Pas potrzebuje jednego wiersza "z zakładki" (halo) nad sobą i pod sobą, tj.
+ * brzegowych wierszy sąsiednich pasów. Ponieważ poprzednie pokolenie podczas
+ * liczenia nie jest zmieniane, wymiana halo sprowadza się do odczytania tych
+ * wierszy wprost z planszy board - bez kopiowania i bez synchronizacji. Jedyną
+ * barierą jest zakończenie wszystkich zadań przed zamianą plansz miejscami.
+ *
+ * Zadania pasów są tworzone raz, w konstruktorze, i w każdym pokoleniu
+ * uruchamiane ponownie (reinitialize) - liczenie pokolenia nie tworzy
+ * żadnych nowych obiektów.
+ *
+ * Silnik ma własną pulę wątków, którą zatrzymuje close.
+ *
+ * @author Sławomir Marczyński
+ */
+class ParallelEngine extends BitboardEngine {
+
+    // Pasów jest kilka razy więcej niż wątków, aby wątek, który skończy
+    // wcześniej, mógł "podkraść" (work stealing) pracę innym wątkom. Zbyt
+    // cienkie pasy nie mają jednak sensu, bo koszt zadania przewyższyłby zysk.
+    //
+    private static final int BANDS_PER_THREAD = 4;
+    private static final int MIN_ROWS_PER_BAND = 16;
+
+    private final ForkJoinPool pool;
+    private final Band[] bands;
+    private final RecursiveAction all;
+
+    ParallelEngine(int width, int height, int threads) {
+        this(width, height, threads, Boundary.WALL);
+    }
+
+    ParallelEngine(int width, int height, int threads, Boundary boundary) {
+        super(width, height, boundary);
+        pool = new ForkJoinPool(threads);
+        int bands = threads * BANDS_PER_THREAD;
+        int rowsPerBand = Math.max(MIN_ROWS_PER_BAND,
+                (height + bands - 1) / bands);
+        this.bands = new Band[(height + rowsPerBand - 1) / rowsPerBand];
+        for (int i = 0; i < this.bands.length; i++) {
+            int from = i * rowsPerBand;
+            this.bands[i] = new Band(from,
+                    Math.min(from + rowsPerBand, height));
+        }
+        all = new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(ParallelEngine.this.bands);
+            }
+        };
+    }
+
+    @Override
+    public void evolve() {
+        for (Band band : bands) {
+            band.reinitialize();
+            band.hashDelta = 0;
+            band.statistics.clear();
+        }
+        all.reinitialize();
+        pool.invoke(all);
+        if (counting) {
+            counted.startGeneration();
+        }
+        for (Band band : bands) {
+            hash ^= band.hashDelta;
+            if (counting) {
+                counted.add(band.statistics);
+            }
+        }
+        if (counting) {
+            counted.finishGeneration();
+        }
+        long[][] swap = board;
+        board = updated;
+        updated = swap;
+    }
+
+    /**
+     * Zatrzymuje pulę wątków silnika.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    /**
+     * Zadanie liczące nowe pokolenie dla wierszy od from (włącznie) do to
+     * (wyłącznie).
+     */
+    private class Band extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        // Każdy pas liczy zmianę skrótu planszy i statystyki osobno, a po
+        // zakończeniu wszystkich zadań są one łączone - XOR i dodawanie są
+        // przemienne, więc kolejność nie ma znaczenia i nie potrzeba
+        // synchronizacji.
+        //
+        private long hashDelta;
+        private final Statistics statistics = new Statistics();
+
+        Band(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            for (int row = from; row < to; row++) {
+                evolveRow(row, board, updated[row]);
+                if (hashing) {
+                    hashDelta ^= ParallelEngine.this.hashDelta(row,
+                            board[row], updated[row], 0, wordsPerRow);
+                }
+                if (counting) {
+                    statistics.addRow(row, board[row], updated[row], 0,
+                            wordsPerRow);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Wzór (pattern) z pliku, wstawiany na planszę w podanym miejscu - opcja
+ * --pattern=plik@wiersz,kolumna.
+ *
+ * Rozpoznawane są dwa popularne formaty plików z wzorami:
+ *
+ * - RLE (run length encoded): wiersze komentarzy zaczynające się od #,
+ * nagłówek "x = ..., y = ..., rule = ..." i ciąg znaków b (pusta komórka),
+ * o (zajęta) i $ (koniec wiersza), każdy z opcjonalną liczbą powtórzeń, np.
+ * 3o$b2o! to trzy zajęte komórki, a w następnym wierszu pusta i dwie zajęte.
+ * Wykrzyknik kończy wzór. Inne litery (stany automatów o wielu stanach)
+ * traktujemy jak zajęte komórki;
+ *
+ * - tekstowy (plaintext, pliki .cells): wiersze komentarzy zaczynające się
+ * od !, a potem jeden wiersz tekstu na wiersz planszy - kropka to pusta
+ * komórka, O albo * zajęta.
+ *
+ * Format rozpoznajemy po pierwszym znaku pliku, a nie po rozszerzeniu nazwy.
+ *
+ * Pliki wzorów bywają ogromne (setki megabajtów), więc nie czytamy ich
+ * w całości ani nie tworzymy żadnych obiektów dla komórek. Plik jest czytany
+ * strumieniem, kawałkami po BUFFER_BYTES bajtów, a kolejne komórki trafiają
+ * od razu jako bity do jednego wiersza (long[]) - ciąg n zajętych komórek
+ * to kilka operacji na słowach, a nie n operacji. Gotowy wiersz jest
+ * dodawany do silnika (Engine.mergeRow) i czyszczony. Wiersze i kolumny
+ * wzoru leżące poza planszą są pomijane, a gdy wzór wyjdzie poza dolny brzeg
+ * planszy, reszty pliku już nie czytamy.
+ *
+ * @author Sławomir Marczyński
+ */
+class PatternFile {
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    final Path path;
+    final int row;
+    final int column;
+
+    // Stan czytania: bufor z kawałkiem pliku, numer wiersza pliku (dla
+    // komunikatów o błędach) i budowany wiersz planszy - wraz z zakresem
+    // słów, w których coś zapisano, żeby czyścić tylko te słowa.
+    //
+    private InputStream input;
+    private final byte[] buffer = new byte[BUFFER_BYTES];
+    private int position;
+    private int limit;
+    private long line;
+
+    private Engine engine;
+    private long[] words;
+    private int firstWord;
+    private int lastWord;
+
+    PatternFile(Path path, int row, int column) {
+        this.path = path;
+        this.row = row;
+        this.column = column;
+    }
+
+    /**
+     * Odczytuje opis wzoru z opcji --pattern: ścieżkę do pliku i, po znaku @,
+     * wiersz i kolumnę planszy, w których ma się znaleźć lewy górny róg
+     * wzoru. Bez @ wzór trafia w lewy górny róg planszy.
+     *
+     * @param text np. glider.rle@10,20
+     * @return wzór
+     * @throws IllegalArgumentException gdy położenie nie jest parą liczb
+     * nieujemnych
+     */
+    static PatternFile parse(String text) {
+        int at = text.lastIndexOf('@');
+        if (at < 0) {
+            return new PatternFile(Paths.get(text), 0, 0);
+        }
+        String[] offset = text.substring(at + 1).split(",");
+        try {
+            if (offset.length == 2) {
+                int row = Integer.parseInt(offset[0].trim());
+                int column = Integer.parseInt(offset[1].trim());
+                if (row >= 0 && column >= 0) {
+                    return new PatternFile(Paths.get(text.substring(0, at)),
+                            row, column);
+                }
+            }
+        } catch (NumberFormatException exception) {
+            // Komunikat o błędzie jest poniżej, wspólny dla obu przypadków.
+        }
+        throw new IllegalArgumentException("Złe położenie wzoru: " + text);
+    }
+
+    /**
+     * Czyta plik i zajmuje na planszy komórki zajęte we wzorze. Pozostałe
+     * komórki planszy się nie zmieniają, więc wzory można na siebie nakładać.
+     *
+     * @param engine silnik z planszą
+     * @throws IOException gdy pliku nie da się odczytać, nie jest
+     * poprawnym wzorem albo położenie wzoru leży poza planszą
+     */
+    void place(Engine engine) throws IOException {
+        if (row >= engine.height() || column >= engine.width()) {
+            throw new IOException(path + ": położenie wzoru (" + row + ", "
+                    + column + ") leży poza planszą " + engine.width()
+                    + " na " + engine.height() + ".");
+        }
+        this.engine = engine;
+        words = new long[BitboardEngine.wordsPerRow(engine.width())];
+        firstWord = words.length;
+        lastWord = -1;
+        line = 1;
+        position = 0;
+        limit = 0;
+        try (InputStream stream = Files.newInputStream(path)) {
+            input = stream;
+            int first = peek();
+            if (first == '!' || first == '.' || first == 'O'
+                    || first == '*') {
+                readPlaintext();
+            } else {
+                readRle();
+            }
+        } finally {
+            input = null;
+            this.engine = null;
+            words = null;
+        }
+    }
+
+    private int peek() throws IOException {
+        if (position == limit) {
+            limit = input.read(buffer, 0, BUFFER_BYTES);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position];
+    }
+
+    private int next() throws IOException {
+        int c = peek();
+        if (c >= 0) {
+            position++;
+            if (c == '\n') {
+                line++;
+            }
+        }
+        return c;
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        do {
+            c = next();
+        } while (c != '\n' && c >= 0);
+    }
+
+    private void readRle() throws IOException {
+        long y = 0;
+        long x = 0;
+        long count = 0;
+        boolean header = true;
+        for (int c = next(); c >= 0 && row + y < engine.height();
+                c = next()) {
+
+            // Komentarze i nagłówek mogą być tylko przed samym wzorem (potem
+            // litera x może oznaczać jeden ze stanów komórki).
+            //
+            if (header && (c == '#' || c == 'x')) {
+                skipLine();
+                continue;
+            }
+            if (c >= '0' && c <= '9') {
+                count = 10 * count + (c - '0');
+                continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                continue;
+            }
+            header = false;
+            long n = count == 0 ? 1 : count;
+            if (c == 'b' || c == '.') {
+                x += n;
+            } else if (c == '$') {
+                flush(row + y);
+                y += n;
+                x = 0;
+            } else if (c == '!') {
+                break;
+            } else if (c >= 'p' && c <= 'y') {
+
+                // Pierwsza litera dwuliterowego stanu - liczba powtórzeń
+                // dotyczy całego stanu, więc jeszcze jej nie zerujemy.
+                //
+                continue;
+            } else if (c == 'o' || c >= 'A' && c <= 'Z') {
+                fill(x, x + n);
+                x += n;
+            } else {
+                throw new IOException(path + ": nieznany znak '" + (char) c
+                        + "' w wierszu " + line);
+            }
+            count = 0;
+        }
+        flush(row + y);
+    }
+
+    private void readPlaintext() throws IOException {
+        long y = 0;
+        long x = 0;
+        boolean lineStart = true;
+        for (int c = next(); c >= 0 && row + y < engine.height();
+                c = next()) {
+            if (lineStart && c == '!') {
+                skipLine();
+                continue;
+            }
+            lineStart = false;
+            if (c == '\n') {
+                flush(row + y);
+                y++;
+                x = 0;
+                lineStart = true;
+            } else if (c == 'O' || c == '*' || c == 'o') {
+                fill(x, x + 1);
+                x++;
+            } else if (c == '.') {
+                x++;
+            } else if (c != '\r' && c != ' ' && c != '\t') {
+                throw new IOException(path + ": nieznany znak '" + (char) c
+                        + "' w wierszu " + line);
+            }
+        }
+        flush(row + y);
+    }
+
+    /**
+     * Zajmuje w budowanym wierszu komórki wzoru od from do to (bez to),
+     * przycięte do szerokości planszy.
+     */
+    private void fill(long from, long to) {
+        long left = Math.max(0, column + from);
+        long right = Math.min(engine.width(), column + to);
+        if (left >= right) {
+            return;
+        }
+        int first = (int) (left >>> 6);
+        int last = (int) ((right - 1) >>> 6);
+        long firstMask = -1L << left;
+        long lastMask = -1L >>> (63 - ((right - 1) & 63));
+        if (first == last) {
+            words[first] |= firstMask & lastMask;
+        } else {
+            words[first] |= firstMask;
+            for (int k = first + 1; k < last; k++) {
+                words[k] = -1L;
+            }
+            words[last] |= lastMask;
+        }
+        firstWord = Math.min(firstWord, first);
+        lastWord = Math.max(lastWord, last);
+    }
+
+    /**
+     * Dodaje budowany wiersz do planszy (jeżeli coś w nim jest) i czyści go.
+     */
+    private void flush(long boardRow) {
+        if (lastWord < 0 || boardRow >= engine.height()) {
+            return;
+        }
+        engine.mergeRow((int) boardRow, words);
+        for (int k = firstWord; k <= lastWord; k++) {
+            words[k] = 0;
+        }
+        firstWord = words.length;
+        lastWord = -1;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Potok (pipeline): jeden wątek liczy kolejne pokolenia, a drugi je rysuje
+ * i zapisuje - oba pracują jednocześnie, więc czas całości zbliża się do
+ * dłuższego z nich, a nie do ich sumy.
+ *
+ * Między wątkami jest kolejka o ograniczonej pojemności, w której czekają
+ * niezmienne kopie pokoleń (patrz Generation):
+ *
+ * - pokolenia, które trzeba zapisać, zawsze trafiają do kolejki. Gdy jest
+ * pełna, to put czeka - liczenie zwalnia do tempa zapisu (backpressure),
+ * zamiast zajmować coraz więcej pamięci;
+ *
+ * - pokolenia tylko do narysowania są pomijane, gdy rysowanie nie nadąża:
+ * nie są nawet kopiowane, jeżeli w kolejce czeka jeszcze poprzednie, i nie są
+ * rysowane, jeżeli za nimi czeka już nowsze. Ostatnie pokolenie jest zawsze
+ * narysowane.
+ *
+ * Potok trzeba zamknąć (close), także gdy liczenie przerwał wyjątek - inaczej
+ * wątek rysujący czekałby w nieskończoność na następne pokolenie.
+ *
+ * @author Sławomir Marczyński
+ */
+class Pipeline implements AutoCloseable {
+
+    static final int DEFAULT_CAPACITY = 4;
+
+    private final BlockingQueue<Generation> queue;
+    private final Consumer<Generation> view;
+    private final Consumer<Generation> store;
+    private final Thread consumer;
+
+    // Pokolenia pominięte przez wątek liczący (skipped) i przez wątek
+    // rysujący (dropped) - każdy licznik zmienia tylko jeden wątek.
+    //
+    private long skipped;
+    private long dropped;
+    private long last = -1;
+    private RuntimeException failure;
+    private boolean finished;
+
+    /**
+     * Tworzy potok i uruchamia wątek rysujący.
+     *
+     * @param capacity największa liczba pokoleń czekających w kolejce
+     * @param view rysowanie pokolenia
+     * @param store zapis pokolenia, wywoływany dla każdego pokolenia w
+     * kolejce przed jego narysowaniem
+     */
+    Pipeline(int capacity, Consumer<Generation> view,
+            Consumer<Generation> store) {
+        queue = new ArrayBlockingQueue<>(capacity);
+        this.view = view;
+        this.store = store;
+        consumer = new Thread(this::consume, "minilife-pipeline");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Przekazuje pokolenie do narysowania i zapisu. Wywołuje ją tylko wątek
+     * liczący ewolucję.
+     *
+     * @param board plansza, np. model - jest kopiowana, więc zaraz potem można
+     * ją zmieniać
+     * @param number numer pokolenia
+     * @param needed true jeżeli pokolenia nie wolno pominąć, bo trzeba je
+     * zapisać
+     * @throws InterruptedException gdy wątek przerwano w czasie czekania na
+     * miejsce w kolejce
+     */
+    void put(Board board, long number, boolean needed)
+            throws InterruptedException {
+        if (!needed && !queue.isEmpty()) {
+            skipped++;
+            return;
+        }
+        queue.put(new Generation(board, number));
+        last = number;
+    }
+
+    /**
+     * Przekazuje ostatnie pokolenie (jeżeli nie zostało już przekazane),
+     * czeka aż wątek rysujący skończy pracę i zwraca liczbę pominiętych
+     * pokoleń.
+     *
+     * @param board plansza
+     * @param number numer ostatniego pokolenia
+     * @return ile pokoleń nie zostało narysowanych
+     * @throws InterruptedException gdy wątek przerwano w czasie czekania
+     */
+    long finish(Board board, long number) throws InterruptedException {
+        if (number != last) {
+
+            // Ostatnie pokolenie zostało pominięte w put - i policzone jako
+            // pominięte, a jednak będzie narysowane.
+            //
+            skipped--;
+            put(board, number, true);
+        }
+        queue.put(Generation.NONE);
+        consumer.join();
+        finished = true;
+        if (failure != null) {
+            throw failure;
+        }
+        return skipped + dropped;
+    }
+
+    /**
+     * Zatrzymuje wątek rysujący, jeżeli nie zakończyło go finish - pokolenia
+     * czekające w kolejce nie będą już narysowane ani zapisane. Czeka, aż
+     * wątek się zakończy, więc po close nic już nie pisze na konsolę.
+     */
+    @Override
+    public void close() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        consumer.interrupt();
+        boolean interrupted = false;
+        while (consumer.isAlive()) {
+            try {
+                consumer.join();
+            } catch (InterruptedException exception) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void consume() {
+        try {
+            for (Generation generation = queue.take();
+                    generation != Generation.NONE;
+                    generation = queue.take()) {
+                if (failure == null) {
+                    process(generation);
+                }
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Zapisuje i rysuje pokolenie. Błąd nie zatrzymuje pętli w consume - bez
+     * niej wątek liczący mógłby czekać w nieskończoność na miejsce w pełnej
+     * kolejce - a tylko dalsze rysowanie, i jest zgłaszany w finish.
+     */
+    private void process(Generation generation) {
+        try {
+            store.accept(generation);
+            Generation next = queue.peek();
+            if (next == null || next == Generation.NONE) {
+                view.accept(generation);
+            } else {
+                dropped++;
+            }
+        } catch (RuntimeException exception) {
+            failure = exception;
+        }
+    }
+}
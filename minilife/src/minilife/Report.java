@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Raport z pomiaru szybkości ewolucji w trybie wsadowym (--headless).
+ *
+ * Raport jest jednym obiektem JSON w jednym wierszu tekstu, np.
+ *
+ *      {"engine":"bitboard","width":1000,...,"cellsPerSecond":1.2E9}
+ *
+ * bo taki format łatwo przeczytać zarówno człowiekowi, jak i programowi
+ * (skryptowi zbierającemu wyniki wielu uruchomień). Kolejność pól jest
+ * zawsze taka sama, w jakiej je dodano.
+ *
+ * @author Sławomir Marczyński
+ */
+class Report {
+
+    private final Map<String, Object> fields = new LinkedHashMap<>();
+
+    /**
+     * Dodaje pole do raportu.
+     *
+     * @param name nazwa pola
+     * @param value wartość: liczba, wartość logiczna albo tekst
+     * @return ten sam raport, aby można było pisać report.add(...).add(...)
+     */
+    Report add(String name, Object value) {
+        fields.put(name, value);
+        return this;
+    }
+
+    /**
+     * Raport z wynikami pomiaru ewolucji.
+     *
+     * @param options opcje, z którymi uruchomiono program
+     * @param model model, którego ewolucję mierzono
+     * @param generations liczba zmierzonych pokoleń
+     * @param nanoseconds czas ich liczenia w nanosekundach
+     * @return raport
+     */
+    static Report of(Options options, Model model, long generations,
+            long nanoseconds) {
+        double seconds = nanoseconds / 1e9;
+        double cells = (double) model.width * model.height * generations;
+        Report report = new Report()
+                .add("engine", options.engine)
+                .add("rule", options.rule.toString())
+                .add("threads", options.threads)
+                .add("block", options.block)
+                .add("workers", options.workers)
+                .add("width", model.width)
+                .add("height", model.height)
+                .add("warmup", options.warmup)
+                .add("generations", generations)
+                .add("seconds", seconds)
+                .add("generationsPerSecond", generations / seconds)
+                .add("cellsPerSecond", cells / seconds);
+        if (options.detectCycles) {
+            report.add("cycleStart", model.getCycleStart())
+                    .add("cyclePeriod", model.getCyclePeriod());
+        }
+        return report;
+    }
+
+    /**
+     * Raport ze statystykami jednego pokolenia - liczby zajętych
+     * i opróżnionych komórek oraz prostokąt tylko wtedy, gdy są znane.
+     *
+     * @param generation numer pokolenia
+     * @param statistics statystyki tego pokolenia
+     * @return raport
+     */
+    static Report of(long generation, Statistics statistics) {
+        Report report = new Report()
+                .add("generation", generation)
+                .add("population", statistics.population);
+        if (statistics.hasChanges()) {
+            report.add("births", statistics.births)
+                    .add("deaths", statistics.deaths);
+        }
+        if (!statistics.isEmpty()) {
+            report.add("top", statistics.top)
+                    .add("left", statistics.left)
+                    .add("bottom", statistics.bottom)
+                    .add("right", statistics.right);
+        }
+        return report;
+    }
+
+    /**
+     * Raport ze statystykami jednego pokolenia zespołu plansz (patrz
+     * Ensemble): średnia, odchylenie standardowe, najmniejsza i największa
+     * liczba zajętych komórek, liczba pustych plansz oraz średnie liczby
+     * zajętych i opróżnionych komórek - o ile są znane.
+     *
+     * @param generation numer pokolenia
+     * @param summary sumy statystyk wszystkich plansz
+     * @return raport
+     */
+    static Report of(int generation, Ensemble.Summary summary) {
+        long boards = summary.boards[generation];
+        double mean = (double) summary.population[generation] / boards;
+        double variance = (double) summary.squares[generation] / boards
+                - mean * mean;
+        Report report = new Report()
+                .add("generation", generation)
+                .add("boards", boards)
+                .add("populationMean", mean)
+                .add("populationStddev", Math.sqrt(Math.max(0, variance)))
+                .add("populationMin", summary.minimum[generation])
+                .add("populationMax", summary.maximum[generation])
+                .add("extinct", summary.extinct[generation]);
+        long changed = summary.changed[generation];
+        if (changed > 0) {
+            report.add("birthsMean", (double) summary.births[generation]
+                    / changed)
+                    .add("deathsMean", (double) summary.deaths[generation]
+                            / changed);
+        }
+        return report;
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Object> field : fields.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(field.getKey()).append("\":");
+            Object value = field.getValue();
+            if (value instanceof Number || value instanceof Boolean) {
+                json.append(format(value));
+            } else {
+                json.append('"').append(escape(String.valueOf(value)))
+                        .append('"');
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Liczby zawsze z kropką dziesiętną - niezależnie od tego, czy w systemie
+     * ustawiono język polski (gdzie separatorem jest przecinek).
+     */
+    private static String format(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            double number = ((Number) value).doubleValue();
+            return Double.isFinite(number)
+                    ? String.format(Locale.ROOT, "%.6g", number) : "null";
+        }
+        return String.valueOf(value);
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < ' ') {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Wypisuje raport na standardowe wyjście albo dopisuje go jako nowy
+     * wiersz do pliku - dzięki dopisywaniu jeden plik może zbierać wyniki
+     * wielu uruchomień.
+     *
+     * @param path plik albo null dla standardowego wyjścia
+     * @throws IOException gdy nie udało się zapisać pliku
+     */
+    void write(Path path) throws IOException {
+        String line = toJson() + System.lineSeparator();
+        if (path == null) {
+            System.out.print(line);
+            System.out.flush();
+        } else {
+            Files.write(path, line.getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reguła automatu komórkowego: nowy stan komórki w zależności od niej samej
+ * i jej ośmiu sąsiadów, tj. od kwadratu 3 na 3 komórki.
+ *
+ * Kwadrat zapisujemy jako 9 bitów liczby int, kolumnami: bit 3 * c + r to
+ * komórka w kolumnie c i wierszu r kwadratu (c, r = 0, 1, 2; 0 to zachód
+ * i północ). Komórka środkowa to bit 4, jej sąsiedzi z północy, zachodu,
+ * wschodu i południa to bity 3, 1, 7 i 5. Kolejność kolumnami jest wygodna,
+ * bo przesuwając się w wierszu o jedną komórkę na wschód wystarczy przesunąć
+ * bity o 3 w prawo i dopisać nową kolumnę jako bity 6, 7 i 8.
+ *
+ * Każda reguła jest przy tworzeniu "kompilowana" do tablicy 512 wartości
+ * - dla każdego możliwego kwadratu - więc liczenie nowego stanu to jedno
+ * sięgnięcie do tablicy, niezależnie od tego jak reguła została opisana.
+ *
+ * Tablica zakłada, że wszystkie komórki kwadratu leżą na planszy. Przy brzegu
+ * typu WALL (patrz Boundary) niektórych sąsiadów nie ma - wtedy nowy stan
+ * liczy wolniejsza metoda next(cells, present), która wie którzy sąsiedzi
+ * istnieją.
+ *
+ * Reguły podaje się tekstem, patrz parse.
+ *
+ * @author Sławomir Marczyński
+ */
+abstract class Rule {
+
+    static final int CENTER = 1 << 4;
+    static final int VON_NEUMANN = 1 << 1 | 1 << 3 | 1 << 5 | 1 << 7;
+    static final int MOORE = 0x1FF & ~CENTER;
+    static final int ALL = 0x1FF;
+
+    /**
+     * Reguła minilife: komórka sąsiadująca z zajętą komórką staje się zajęta,
+     * a komórka otoczona przez zajęte komórki staje się pusta. Sąsiedzi to
+     * cztery komórki: z północy, południa, zachodu i wschodu.
+     */
+    static final Rule MINILIFE = new Minilife("minilife", VON_NEUMANN);
+
+    private static final Pattern LIFE_LIKE = Pattern.compile(
+            "B([0-8]*)/S([0-8]*)(V?)", Pattern.CASE_INSENSITIVE);
+
+    private final String name;
+    final int neighbours;
+    private final boolean[] table = new boolean[ALL + 1];
+
+    Rule(String name, int neighbours) {
+        this.name = name;
+        this.neighbours = neighbours;
+    }
+
+    /**
+     * Wypełnia tablicę reguły. Wywoływane na końcu konstruktorów klas
+     * pochodnych, gdy wszystkie ich pola mają już wartości.
+     */
+    final void compile() {
+        for (int cells = 0; cells <= ALL; cells++) {
+            table[cells] = next(cells, ALL);
+        }
+    }
+
+    /**
+     * Odczytuje regułę z tekstu. Rozpoznawane są:
+     *
+     * - minilife - reguła minilife (domyślna), minilife-moore - to samo, ale
+     * sąsiadów jest ośmiu, także po przekątnych;
+     *
+     * - reguły typu Life w notacji B/S, np. B3/S23 (zwykła gra w życie):
+     * komórka pusta staje się zajęta, gdy ma tylu zajętych sąsiadów ile
+     * wymieniono po B, a zajęta pozostaje zajęta, gdy ma ich tylu, ile
+     * wymieniono po S. Sąsiadów jest ośmiu, a z literą V na końcu (np.
+     * B1/S1V) tylko czterech.
+     *
+     * @param text opis reguły
+     * @return reguła
+     * @throws IllegalArgumentException gdy reguła jest nieznana
+     */
+    static Rule parse(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        if (lower.equals(MINILIFE.name)) {
+            return MINILIFE;
+        }
+        if (lower.equals("minilife-moore")) {
+            return new Minilife("minilife-moore", MOORE);
+        }
+        Matcher matcher = LIFE_LIKE.matcher(text);
+        if (matcher.matches()) {
+            return new LifeLike(matcher.group(1), matcher.group(2),
+                    matcher.group(3).isEmpty() ? MOORE : VON_NEUMANN);
+        }
+        throw new IllegalArgumentException("Nieznana reguła: " + text);
+    }
+
+    /**
+     * Nowy stan komórki, gdy wszystkie komórki kwadratu leżą na planszy.
+     *
+     * @param cells kwadrat 3 na 3, bit ustawiony dla zajętej komórki
+     * @return true jeżeli komórka będzie zajęta
+     */
+    final boolean next(int cells) {
+        return table[cells];
+    }
+
+    /**
+     * Nowy stan komórki, gdy niektórych komórek kwadratu nie ma - są poza
+     * planszą ograniczoną ścianą (WALL).
+     *
+     * @param cells kwadrat 3 na 3, bit ustawiony dla zajętej komórki
+     * @param present bit ustawiony dla komórki leżącej na planszy
+     * @return true jeżeli komórka będzie zajęta
+     */
+    abstract boolean next(int cells, int present);
+
+    /**
+     * Czy pusta okolica pozostaje pusta - także przy brzegu planszy. Tylko
+     * dla takich reguł można pomijać obliczenia w pustych fragmentach planszy
+     * (np. w HashlifeEngine).
+     *
+     * @return true jeżeli komórka bez zajętych sąsiadów pozostaje pusta
+     */
+    boolean isQuiescent() {
+        for (int present = 0; present <= ALL; present++) {
+            if (next(0, present | CENTER)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Reguła minilife dla czterech albo ośmiu sąsiadów.
+     */
+    private static final class Minilife extends Rule {
+
+        Minilife(String name, int neighbours) {
+            super(name, neighbours);
+            compile();
+        }
+
+        @Override
+        boolean next(int cells, int present) {
+
+            // Sąsiad spoza planszy nie jest zajęty - więc go pomijamy przy
+            // zajmowaniu - ale też nie jest pusty, więc przy opróżnianiu
+            // liczy się tak, jakby był zajęty.
+            //
+            boolean filled = (cells & present & (neighbours | CENTER)) != 0;
+            boolean surrounded = ((cells | ~present) & neighbours)
+                    == neighbours;
+            return filled && !surrounded;
+        }
+    }
+
+    /**
+     * Reguła typu Life: nowy stan zależy tylko od stanu komórki i liczby
+     * zajętych sąsiadów. Sąsiad spoza planszy jest pusty.
+     */
+    private static final class LifeLike extends Rule {
+
+        private final boolean[] birth = new boolean[9];
+        private final boolean[] survival = new boolean[9];
+
+        LifeLike(String births, String survivals, int neighbours) {
+            super("B" + births + "/S" + survivals
+                    + (neighbours == VON_NEUMANN ? "V" : ""), neighbours);
+            for (char digit : births.toCharArray()) {
+                birth[digit - '0'] = true;
+            }
+            for (char digit : survivals.toCharArray()) {
+                survival[digit - '0'] = true;
+            }
+            compile();
+        }
+
+        @Override
+        boolean next(int cells, int present) {
+            int count = Integer.bitCount(cells & present & neighbours);
+            return (cells & CENTER) != 0 ? survival[count] : birth[count];
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Zapis planszy w pliku (snapshot) i jej odczyt.
+ *
+ * Format pliku jest bardzo prosty: nagłówek 24 bajty (znacznik "MLIF", numer
+ * wersji formatu, szerokość, wysokość - po 4 bajty - i numer pokolenia jako
+ * 8 bajtów), a za nim kolejne wiersze planszy jako bity upakowane w liczbach
+ * long, tak jak w Board.readRow. Wszystko w kolejności bajtów little-endian.
+ * Plansza 10000 na 10000 komórek zajmuje więc niecałe 13 MB.
+ *
+ * Plik nie jest czytany ani pisany strumieniem, tylko odwzorowany w pamięci
+ * (memory-mapped) - system operacyjny sam przenosi strony pliku do pamięci,
+ * a my kopiujemy wiersze prosto z nich do silnika (albo z silnika do nich).
+ * Jedno odwzorowanie może mieć najwyżej 2 GB, dlatego duże pliki są
+ * odwzorowywane kawałkami.
+ *
+ * @author Sławomir Marczyński
+ */
+class Snapshot {
+
+    private static final int MAGIC = 0x46494C4D; // "MLIF" little-endian
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+    private static final long MAX_MAPPING_BYTES = 1L << 30;
+
+    final int width;
+    final int height;
+    final long generation;
+    private final Path path;
+
+    private Snapshot(Path path, int width, int height, long generation) {
+        this.path = path;
+        this.width = width;
+        this.height = height;
+        this.generation = generation;
+    }
+
+    /**
+     * Otwiera plik i odczytuje jego nagłówek. Samą planszę odczytuje dopiero
+     * metoda restore, bo do tego potrzebny jest już silnik o odpowiednich
+     * rozmiarach.
+     *
+     * @param path ścieżka do pliku
+     * @return opis zawartości pliku
+     * @throws IOException gdy pliku nie da się odczytać albo nie jest plikiem
+     * w tym formacie
+     */
+    static Snapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(path + ": plik jest za krótki");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(path + ": nieznany format pliku");
+            }
+            int width = header.getInt();
+            int height = header.getInt();
+            long generation = header.getLong();
+            long expected = HEADER_BYTES + rowBytes(width) * height;
+            if (width <= 0 || height <= 0 || channel.size() != expected) {
+                throw new IOException(path + ": uszkodzony plik");
+            }
+            return new Snapshot(path, width, height, generation);
+        }
+    }
+
+    /**
+     * Wpisuje planszę z pliku do silnika.
+     *
+     * @param engine silnik o takich samych rozmiarach jak plansza w pliku
+     * @throws IOException gdy pliku nie da się odczytać
+     */
+    void restore(Engine engine) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            read(channel, engine, width, height);
+        }
+    }
+
+    /**
+     * Zapisuje planszę do pliku. Najpierw powstaje plik tymczasowy, który
+     * dopiero na końcu zastępuje plik docelowy - przerwany zapis nie zniszczy
+     * więc poprzedniego, dobrego pliku.
+     *
+     * @param path ścieżka do pliku
+     * @param board plansza, którą zapisujemy - silnik albo kopia pokolenia
+     * @param generation numer pokolenia
+     * @throws IOException gdy pliku nie da się zapisać
+     */
+    static void save(Path path, Board board, long generation)
+            throws IOException {
+        int width = board.width();
+        int height = board.height();
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer header = channel.map(
+                    FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height)
+                    .putLong(generation);
+            write(channel, board, width, height);
+        }
+        try {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException exception) {
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static long rowBytes(int width) {
+        return (long) BitboardEngine.wordsPerRow(width) * Long.BYTES;
+    }
+
+    /**
+     * Ile wierszy mapujemy naraz - mapowanie nie może przekroczyć
+     * MAX_MAPPING_BYTES, ale zawsze obejmuje co najmniej jeden wiersz.
+     */
+    private static int rowsPerMapping(int width) {
+        return (int) Math.max(1, MAX_MAPPING_BYTES / rowBytes(width));
+    }
+
+    /**
+     * Przepisuje wiersze z pliku do silnika.
+     */
+    private static void read(FileChannel channel, Engine engine, int width,
+            int height) throws IOException {
+        long rowBytes = rowBytes(width);
+        int rowsPerMapping = rowsPerMapping(width);
+        long[] words = new long[BitboardEngine.wordsPerRow(width)];
+
+        for (int first = 0; first < height; first += rowsPerMapping) {
+            int rows = Math.min(rowsPerMapping, height - first);
+            LongBuffer longs = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES + first * rowBytes, rows * rowBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+            for (int row = first; row < first + rows; row++) {
+                longs.get(words);
+                engine.writeRow(row, words);
+            }
+        }
+    }
+
+    /**
+     * Przepisuje wiersze z planszy (dowolnej) do pliku.
+     */
+    private static void write(FileChannel channel, Board board, int width,
+            int height) throws IOException {
+        long rowBytes = rowBytes(width);
+        int rowsPerMapping = rowsPerMapping(width);
+        long[] words = new long[BitboardEngine.wordsPerRow(width)];
+
+        for (int first = 0; first < height; first += rowsPerMapping) {
+            int rows = Math.min(rowsPerMapping, height - first);
+            MappedByteBuffer mapping = channel.map(
+                    FileChannel.MapMode.READ_WRITE,
+                    HEADER_BYTES + first * rowBytes, rows * rowBytes);
+            LongBuffer longs = mapping.order(ByteOrder.LITTLE_ENDIAN)
+                    .asLongBuffer();
+            for (int row = first; row < first + rows; row++) {
+                board.readRow(row, words);
+                longs.put(words);
+            }
+            mapping.force();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+/**
+ * Silnik rzadki (sparse): przechowuje tylko te fragmenty planszy, na których
+ * jest choć jedna zajęta komórka.
+ *
+ * Plansza jest podzielona na kawałki (chunks) 8 na 8 komórek, a każdy kawałek
+ * mieści się w jednej liczbie long - komórka (y, x) kawałka to bit y * 8 + x.
+ * Niepuste kawałki leżą w mapie LongLongMap, w której kluczem są współrzędne
+ * kawałka upakowane w jedną liczbę long. Pamięć jest więc proporcjonalna do
+ * liczby zajętych komórek, a nie do rozmiaru planszy.
+ *
+ * Plansza ma rozmiary width na height, a brzegi są takie jak w ArrayEngine.
+ * Ponieważ pamięć nie zależy od rozmiaru planszy, plansza może być praktycznie
+ * nieograniczona - nawet Integer.MAX_VALUE na Integer.MAX_VALUE komórek.
+ * Ujemnych współrzędnych nie ma: Board, a więc i widok, zapis planszy oraz
+ * statystyki, zakłada komórki od (0, 0) do (height - 1, width - 1).
+ *
+ * @author Sławomir Marczyński
+ */
+class SparseEngine implements Engine {
+
+    // Maski kolumn: COLUMN_0 ma zapalone bity x = 0 we wszystkich ośmiu
+    // wierszach kawałka, COLUMN_7 bity x = 7. Wiersz y = 0 to po prostu 0xFF.
+    //
+    private static final long COLUMN_0 = 0x0101010101010101L;
+    private static final long COLUMN_7 = 0x8080808080808080L;
+    private static final long ROW_0 = 0xFFL;
+
+    private final int width;
+    private final int height;
+
+    private LongLongMap chunks = new LongLongMap();
+    private LongLongMap updated = new LongLongMap();
+
+    /**
+     * Tworzy silnik z planszą o podanych rozmiarach.
+     *
+     * @param width szerokość planszy
+     * @param height wysokość planszy
+     */
+    SparseEngine(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    private static long key(int chunkRow, int chunkColumn) {
+        return ((long) chunkRow << 32) | (chunkColumn & 0xFFFFFFFFL);
+    }
+
+    private static long bit(int row, int column) {
+        return 1L << (((row & 7) << 3) | (column & 7));
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public boolean isFilledCell(int row, int column) {
+        return (chunks.get(key(row >> 3, column >> 3)) & bit(row, column)) != 0;
+    }
+
+    @Override
+    public void setCell(int row, int column, boolean filled) {
+        long key = key(row >> 3, column >> 3);
+        long chunk = chunks.get(key);
+        chunks.put(key, filled ? chunk | bit(row, column)
+                : chunk & ~bit(row, column));
+    }
+
+    @Override
+    public void evolve() {
+
+        // Nowy stan może pojawić się tylko w niepustym kawałku albo w jednym
+        // z czterech jego sąsiadów (reguła sięga tylko o jedną komórkę na
+        // północ, południe, zachód i wschód). Każdy z nich liczymy raz - stąd
+        // sprawdzenie containsKey. Wyniki zerowe też zapisujemy, żeby nie
+        // liczyć ich ponownie; w następnym kroku zostaną po prostu pominięte.
+        //
+        updated.clear(chunks.size());
+        for (int i = 0; i < chunks.capacity(); i++) {
+            long key = chunks.keyAt(i);
+            if (key == LongLongMap.EMPTY || chunks.valueAt(i) == 0) {
+                continue;
+            }
+            int chunkRow = (int) (key >> 32);
+            int chunkColumn = (int) key;
+            evolveChunk(chunkRow, chunkColumn);
+            evolveChunk(chunkRow - 1, chunkColumn);
+            evolveChunk(chunkRow + 1, chunkColumn);
+            evolveChunk(chunkRow, chunkColumn - 1);
+            evolveChunk(chunkRow, chunkColumn + 1);
+        }
+
+        LongLongMap swap = chunks;
+        chunks = updated;
+        updated = swap;
+    }
+
+    private void evolveChunk(int chunkRow, int chunkColumn) {
+        long key = key(chunkRow, chunkColumn);
+        if (updated.containsKey(key)) {
+            return;
+        }
+
+        long c = chunks.get(key);
+        long n = chunks.get(key(chunkRow - 1, chunkColumn));
+        long s = chunks.get(key(chunkRow + 1, chunkColumn));
+        long w = chunks.get(key(chunkRow, chunkColumn - 1));
+        long e = chunks.get(key(chunkRow, chunkColumn + 1));
+
+        // Dla każdej komórki kawałka jej sąsiad z północy, południa, zachodu
+        // i wschodu. Przesunięcie o 8 bitów to przesunięcie o jeden wiersz,
+        // o 1 bit - o jedną kolumnę; brakujący wiersz albo kolumnę bierzemy
+        // z sąsiedniego kawałka.
+        //
+        long north = (c << 8) | (n >>> 56);
+        long south = (c >>> 8) | (s << 56);
+        long west = ((c << 1) & ~COLUMN_0) | ((w >>> 7) & COLUMN_0);
+        long east = ((c >>> 1) & ~COLUMN_7) | ((e << 7) & COLUMN_7);
+
+        long fill = c | north | south | west | east;
+
+        // Sąsiad spoza planszy nie jest pusty, więc przy opróżnianiu
+        // traktujemy go jak zajęty. Wynik obcinamy do komórek planszy.
+        //
+        long keep = (north | rowMask(chunkRow, 0))
+                & (south | rowMask(chunkRow, height - 1))
+                & (west | columnMask(chunkColumn, 0))
+                & (east | columnMask(chunkColumn, width - 1));
+        fill &= insideMask(chunkRow, chunkColumn);
+        updated.put(key, fill & ~keep);
+    }
+
+    /**
+     * Maska komórek kawałka leżących w danym wierszu planszy.
+     *
+     * @param chunkRow numer wiersza kawałka
+     * @param row numer wiersza planszy
+     * @return maska albo 0 jeżeli wiersz nie przechodzi przez kawałek
+     */
+    private static long rowMask(int chunkRow, int row) {
+        return chunkRow == row >> 3 ? ROW_0 << ((row & 7) << 3) : 0;
+    }
+
+    /**
+     * Maska komórek kawałka leżących w danej kolumnie planszy.
+     *
+     * @param chunkColumn numer kolumny kawałka
+     * @param column numer kolumny planszy
+     * @return maska albo 0 jeżeli kolumna nie przechodzi przez kawałek
+     */
+    private static long columnMask(int chunkColumn, int column) {
+        return chunkColumn == column >> 3 ? COLUMN_0 << (column & 7) : 0;
+    }
+
+    /**
+     * Maska komórek kawałka, które leżą na planszy.
+     */
+    private long insideMask(int chunkRow, int chunkColumn) {
+        long rows = clamp(height - ((long) chunkRow << 3));
+        long columns = clamp(width - ((long) chunkColumn << 3));
+        if (chunkRow < 0 || chunkColumn < 0 || rows == 0 || columns == 0) {
+            return 0;
+        }
+        if (rows == 8 && columns == 8) {
+            return -1L;
+        }
+        long rowMask = (1L << columns) - 1;
+        long mask = 0;
+        for (int y = 0; y < rows; y++) {
+            mask |= rowMask << (y << 3);
+        }
+        return mask;
+    }
+
+    private static long clamp(long cells) {
+        return Math.max(0, Math.min(8, cells));
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+/**
+ * Statystyki planszy: liczba zajętych komórek (population), prostokąt
+ * obejmujący wszystkie zajęte komórki (bounding box) oraz liczba komórek,
+ * które w ostatnim pokoleniu zostały zajęte (births) i opróżnione (deaths).
+ *
+ * Policzenie ich po każdym kroku ewolucji wymagałoby ponownego przejrzenia
+ * całej planszy - a to kosztuje mniej więcej tyle, co samo liczenie
+ * pokolenia. Dlatego silniki, które i tak przeglądają całą planszę w evolve,
+ * zbierają statystyki przy okazji, wiersz po wierszu, dopóki wiersz jest
+ * jeszcze w pamięci podręcznej procesora (patrz Engine.statistics).
+ *
+ * Obiekt służy także jako licznik, do którego dodaje się kolejne wiersze
+ * - stąd pola, które nie są final. Na zewnątrz silnika trafiają tylko kopie.
+ *
+ * @author Sławomir Marczyński
+ */
+class Statistics {
+
+    /**
+     * Wartość births i deaths, gdy nie wiadomo ile komórek się zmieniło - np.
+     * gdy statystyki policzono od nowa z samej planszy, albo gdy silnik
+     * przeskoczył wiele pokoleń naraz.
+     */
+    static final long UNKNOWN = -1;
+
+    long population;
+    long births;
+    long deaths;
+
+    // Prostokąt obejmujący zajęte komórki: wiersze od top do bottom i kolumny
+    // od left do right, wszystko włącznie. Ma sens tylko gdy population > 0.
+    //
+    int top;
+    int bottom;
+    int left;
+    int right;
+
+    Statistics() {
+        clear();
+    }
+
+    /**
+     * Zeruje statystyki przed dodawaniem wierszy całej planszy.
+     */
+    final void clear() {
+        population = 0;
+        startGeneration();
+    }
+
+    /**
+     * Przygotowuje statystyki do zebrania kolejnego pokolenia: zeruje liczby
+     * zmienionych komórek i prostokąt, ale nie liczbę zajętych komórek - tę
+     * uaktualni finishGeneration o różnicę zajętych i opróżnionych komórek,
+     * bez liczenia wszystkich zajętych komórek od nowa.
+     */
+    final void startGeneration() {
+        births = 0;
+        deaths = 0;
+        top = Integer.MAX_VALUE;
+        bottom = -1;
+        left = Integer.MAX_VALUE;
+        right = -1;
+    }
+
+    /**
+     * Kończy zbieranie statystyk pokolenia, patrz startGeneration.
+     */
+    void finishGeneration() {
+        population += births - deaths;
+    }
+
+    /**
+     * Dodaje słowa od from (włącznie) do to (wyłącznie) jednego wiersza
+     * planszy zapisanego bitami tak jak w Board.readRow: zajęte i opróżnione
+     * komórki oraz zajęte komórki do prostokąta.
+     *
+     * @param row numer wiersza
+     * @param before wiersz w poprzednim pokoleniu
+     * @param after wiersz w bieżącym pokoleniu
+     * @param from numer pierwszego słowa
+     * @param to numer słowa za ostatnim słowem
+     */
+    void addRow(int row, long[] before, long[] after, int from, int to) {
+        long filled = 0;
+        for (int k = from; k < to; k++) {
+            long changed = before[k] ^ after[k];
+            filled |= after[k];
+            if (changed != 0) {
+                births += Long.bitCount(changed & after[k]);
+                deaths += Long.bitCount(changed & before[k]);
+            }
+        }
+        if (filled == 0) {
+            return;
+        }
+
+        // Skrajne zajęte komórki szukamy od obu końców wiersza - zwykle to
+        // tylko kilka słów.
+        //
+        int first = from;
+        while (after[first] == 0) {
+            first++;
+        }
+        int last = to - 1;
+        while (after[last] == 0) {
+            last--;
+        }
+        add(row, (first << 6) + Long.numberOfTrailingZeros(after[first]),
+                (last << 6) + 63 - Long.numberOfLeadingZeros(after[last]));
+    }
+
+    /**
+     * Dodaje tylko liczby zajętych i opróżnionych komórek - dla silników,
+     * które prostokąt wyznaczają inaczej.
+     *
+     * @param before wiersz w poprzednim pokoleniu
+     * @param after wiersz w bieżącym pokoleniu
+     * @param from numer pierwszego słowa
+     * @param to numer słowa za ostatnim słowem
+     */
+    void addChanges(long[] before, long[] after, int from, int to) {
+        for (int k = from; k < to; k++) {
+            long changed = before[k] ^ after[k];
+            if (changed != 0) {
+                births += Long.bitCount(changed & after[k]);
+                deaths += Long.bitCount(changed & before[k]);
+            }
+        }
+    }
+
+    /**
+     * Poszerza prostokąt o odcinek wiersza row od kolumny left do kolumny
+     * right, obie włącznie, w którym są zajęte komórki.
+     *
+     * @param row numer wiersza
+     * @param left pierwsza zajęta kolumna
+     * @param right ostatnia zajęta kolumna
+     */
+    void add(int row, int left, int right) {
+        top = Math.min(top, row);
+        bottom = Math.max(bottom, row);
+        this.left = Math.min(this.left, left);
+        this.right = Math.max(this.right, right);
+    }
+
+    /**
+     * Dodaje statystyki innej części planszy (np. innego pasa wierszy).
+     *
+     * @param other statystyki części planszy rozłącznej z dotychczasową
+     */
+    void add(Statistics other) {
+        population += other.population;
+        births += other.births;
+        deaths += other.deaths;
+        if (other.bottom >= 0) {
+            add(other.top, other.left, other.right);
+            add(other.bottom, other.left, other.right);
+        }
+    }
+
+    /**
+     * Oznacza liczby zajętych i opróżnionych komórek jako nieznane.
+     */
+    void forgetChanges() {
+        births = UNKNOWN;
+        deaths = UNKNOWN;
+    }
+
+    boolean isEmpty() {
+        return population == 0;
+    }
+
+    /**
+     * Czy wiadomo ile komórek zajęto i opróżniono w ostatnim pokoleniu.
+     *
+     * @return false jeżeli births i deaths są równe UNKNOWN
+     */
+    boolean hasChanges() {
+        return births != UNKNOWN;
+    }
+
+    Statistics copy() {
+        Statistics copy = new Statistics();
+        copy.population = population;
+        copy.births = births;
+        copy.deaths = deaths;
+        copy.top = top;
+        copy.bottom = bottom;
+        copy.left = left;
+        copy.right = right;
+        return copy;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Silnik, w którym komórka zajmuje jeden bajt, a reguła jest liczona dla
+ * całych odcinków wiersza naraz - po 8 komórek jedną operacją na liczbie long
+ * (tzw. SWAR, SIMD within a register).
+ *
+ * Żeby to było możliwe:
+ *
+ * - plansza jest jedną tablicą byte[], wiersz po wierszu, otoczoną ramką
+ * (ghost cells) szerokości jednej komórki - sąsiad z brzegu planszy zawsze
+ * istnieje w tablicy i nie trzeba niczego sprawdzać. Zawartość ramki zależy
+ * od wybranego brzegu (patrz Boundary), tak samo jak w ArrayEngine;
+ *
+ * - regułę zapisujemy wyłącznie operacjami bitowymi, bez rozgałęzień. Bit 0
+ * komórki mówi czy jest zajęta (dla zajmowania sąsiadów), bit 1 czy nie jest
+ * pusta (dla opróżniania). Zwykła komórka to 0 (pusta) albo 3 (zajęta),
+ * a ramka typu WALL to 2 - ani zajęta, ani pusta. Operacje bitowe nie
+ * przenoszą niczego między bajtami, więc osiem bajtów wczytanych jako jeden
+ * long liczy się niezależnie.
+ *
+ * Osiem sąsiednich bajtów czytamy i zapisujemy jako jeden long przez
+ * VarHandle (MethodHandles.byteArrayViewVarHandle) - także spod adresów
+ * niewyrównanych do 8, bo sąsiedzi z zachodu i wschodu są przesunięci o jeden
+ * bajt.
+ *
+ * Nie korzystamy z Vector API (jdk.incubator.vector), bo jest ono wciąż
+ * modułem inkubacyjnym i wymagałoby opcji --add-modules przy kompilacji
+ * i uruchamianiu całego programu. Pętla na liczbach long działa na każdej
+ * maszynie JVM, a końcówki wierszy krótsze niż 8 komórek są liczone zwykłą
+ * pętlą skalarną.
+ *
+ * @author Sławomir Marczyński
+ */
+class SwarEngine implements Engine {
+
+    static final byte EMPTY = 0;
+    static final byte FILLED = 3;
+    static final byte WALL = 2;
+
+    // Najmłodszy bit w każdym z ośmiu bajtów liczby long.
+    //
+    private static final long LOW_BITS = 0x0101010101010101L;
+
+    private static final VarHandle BYTES_AS_LONG = MethodHandles
+            .byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final Boundary boundary;
+
+    private byte[] board;
+    private byte[] updated;
+
+    SwarEngine(int width, int height) {
+        this(width, height, Boundary.WALL);
+    }
+
+    SwarEngine(int width, int height, Boundary boundary) {
+        this.width = width;
+        this.height = height;
+        this.boundary = boundary;
+        stride = width + 2;
+        board = new byte[stride * (height + 2)];
+        updated = new byte[stride * (height + 2)];
+
+        // Ramka DEAD to same zera, więc jest już gotowa. Ramka TORUS i MIRROR
+        // jest wypełniana przed każdym krokiem.
+        //
+        if (boundary == Boundary.WALL) {
+            fillFrame(board);
+            fillFrame(updated);
+        }
+    }
+
+    private void fillFrame(byte[] cells) {
+        for (int column = 0; column < stride; column++) {
+            cells[column] = WALL;
+            cells[(height + 1) * stride + column] = WALL;
+        }
+        for (int row = 1; row <= height; row++) {
+            cells[row * stride] = WALL;
+            cells[row * stride + width + 1] = WALL;
+        }
+    }
+
+    /**
+     * Przepisuje do ramki komórki z brzegów planszy, tak jak w ArrayEngine:
+     * najpierw kolumny, potem całe wiersze razem z narożnikami.
+     */
+    private void fillRing(byte[] cells) {
+        int west = boundary.source(-1, width) + 1;
+        int east = boundary.source(width, width) + 1;
+        for (int row = 1; row <= height; row++) {
+            cells[row * stride] = cells[row * stride + west];
+            cells[row * stride + width + 1] = cells[row * stride + east];
+        }
+        int north = boundary.source(-1, height) + 1;
+        int south = boundary.source(height, height) + 1;
+        System.arraycopy(cells, north * stride, cells, 0, stride);
+        System.arraycopy(cells, south * stride, cells, (height + 1) * stride,
+                stride);
+    }
+
+    private int index(int row, int column) {
+        return (row + 1) * stride + column + 1;
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public boolean isFilledCell(int row, int column) {
+        return board[index(row, column)] == FILLED;
+    }
+
+    @Override
+    public void setCell(int row, int column, boolean filled) {
+        board[index(row, column)] = filled ? FILLED : EMPTY;
+    }
+
+    @Override
+    public void evolve() {
+        if (!boundary.isConstant()) {
+            fillRing(board);
+        }
+        for (int row = 0; row < height; row++) {
+            int from = index(row, 0);
+            evolveSegment(board, updated, from, from + width, stride);
+        }
+        byte[] swap = board;
+        board = updated;
+        updated = swap;
+    }
+
+    /**
+     * Liczy nowy stan komórek od from (włącznie) do to (wyłącznie).
+     */
+    private static void evolveSegment(byte[] source, byte[] target, int from,
+            int to, int stride) {
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long c = (long) BYTES_AS_LONG.get(source, i);
+            long n = (long) BYTES_AS_LONG.get(source, i - stride);
+            long s = (long) BYTES_AS_LONG.get(source, i + stride);
+            long w = (long) BYTES_AS_LONG.get(source, i - 1);
+            long e = (long) BYTES_AS_LONG.get(source, i + 1);
+            long fill = (c | n | s | w | e) & LOW_BITS;
+            long keep = ((n & s & w & e) >>> 1) & LOW_BITS;
+            long value = fill & ~keep;
+            BYTES_AS_LONG.set(target, i, value | (value << 1));
+        }
+        for (; i < to; i++) {
+            int c = source[i];
+            int n = source[i - stride];
+            int s = source[i + stride];
+            int w = source[i - 1];
+            int e = source[i + 1];
+            int fill = (c | n | s | w | e) & 1;
+            int keep = (n & s & w & e) >> 1;
+            int value = fill & ~keep;
+            target[i] = (byte) (value | (value << 1));
+        }
+    }
+}
@@ -0,0 +1,501 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Widok planszy w okienku (Swing) - opcja --swing.
+ *
+ * Ewolucja i rysowanie działają w dwóch różnych wątkach: model liczy wątek
+ * aplikacji (ten sam, który wywołuje paint), a rysuje wątek Swinga (event
+ * dispatch thread, EDT). Silników nie można czytać w trakcie liczenia, więc
+ * paint kopiuje planszę do osobnego bufora jako bity, tak jak w
+ * Board.readRow, i oddaje go wątkowi Swinga. Jeżeli wątek Swinga jeszcze
+ * nie narysował poprzedniej kopii, to paint nic nie kopiuje - pokolenia
+ * liczone szybciej niż da się je pokazać są po prostu pomijane i nie
+ * spowalniają ewolucji.
+ *
+ * Obraz to BufferedImage wielkości okna, a piksele wpisujemy wprost do jego
+ * tablicy int[] (DataBufferInt) - po jednym pikselu albo kwadracie pikseli
+ * na komórkę, zależnie od powiększenia. Po pierwszym obrazie przerysowujemy
+ * tylko komórki, które zmieniły się od poprzedniego obrazu (porównując
+ * słowa long, czyli 64 komórki naraz), i prosimy Swinga o odświeżenie tylko
+ * prostokąta, w którym one leżą.
+ *
+ * Kółko myszy i klawisze + i - powiększają i pomniejszają, przeciąganie
+ * myszą i strzałki przesuwają planszę, klawisz Home wraca do początkowego
+ * widoku.
+ *
+ * @author Sławomir Marczyński
+ */
+class SwingView {
+
+    private static final int FILLED = 0x000000;
+    private static final int EMPTY = 0xFFFFFF;
+    private static final int OUTSIDE = 0x808080;
+
+    // Wątek Swinga sprawdza co FRAME_MILLIS milisekund, czy jest nowa kopia
+    // planszy - czyli nie częściej niż 100 razy na sekundę.
+    //
+    private static final int FRAME_MILLIS = 10;
+    private static final int MAX_CELL_SIZE = 32;
+
+    private final Model model;
+    private final int wordsPerRow;
+
+    /*
+     * Trzy kopie planszy: back wypełnia wątek ewolucji, ready czeka na
+     * narysowanie, front jest rysowana. Wymiana kopii odbywa się pod blokadą
+     * tego obiektu. Tablica shown (tylko dla wątku Swinga) to plansza, którą
+     * pokazuje obecnie obraz.
+     */
+    private long[][] back;
+    private long[][] ready;
+    private long[][] front;
+    private final long[][] shown;
+    private long readyGeneration;
+    private long frontGeneration;
+    private boolean fresh;
+    private boolean wanted = true;
+
+    private volatile boolean closed;
+
+    // Pola poniżej zmienia tylko wątek Swinga.
+    //
+    private JFrame frame;
+    private final BoardPanel panel = new BoardPanel();
+    private BufferedImage image;
+    private int[] pixels;
+    private int cellSize = 1;
+    private int originRow;
+    private int originColumn;
+    private boolean redrawAll = true;
+    private int frames;
+    private long framesSince = System.nanoTime();
+
+    SwingView(Model model) {
+        this.model = model;
+        wordsPerRow = BitboardEngine.wordsPerRow(model.width);
+        back = new long[model.height][wordsPerRow];
+        ready = new long[model.height][wordsPerRow];
+        front = new long[model.height][wordsPerRow];
+        shown = new long[model.height][wordsPerRow];
+    }
+
+    /**
+     * Otwiera okno. Można wywołać z dowolnego wątku.
+     */
+    void show() {
+        SwingUtilities.invokeLater(() -> {
+            frame = new JFrame("minilife");
+            frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosed(WindowEvent event) {
+                    closed = true;
+                }
+            });
+            panel.setPreferredSize(new Dimension(
+                    Math.min(model.width, 1024), Math.min(model.height, 768)));
+            frame.add(panel);
+            frame.pack();
+            frame.setLocationRelativeTo(null);
+            frame.setVisible(true);
+            panel.requestFocusInWindow();
+            new Timer(FRAME_MILLIS, event -> nextFrame()).start();
+        });
+    }
+
+    /**
+     * Czy okno zostało zamknięte - wtedy nie ma sensu dalej liczyć.
+     *
+     * @return true jeżeli użytkownik zamknął okno
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Przekazuje bieżącą planszę do narysowania, o ile wątek Swinga narysował
+     * już poprzednią. Wywoływać tylko z wątku, który liczy ewolucję.
+     */
+    void paint() {
+        synchronized (this) {
+            if (!wanted) {
+                return;
+            }
+        }
+        publish();
+    }
+
+    /**
+     * Tak jak paint, ale zawsze - czekając, aż wątek Swinga narysuje
+     * poprzednią planszę. Przydaje się dla ostatniego pokolenia, które nie
+     * może zostać pominięte.
+     *
+     * @throws InterruptedException gdy wątek przerwano podczas czekania
+     */
+    void paintAndWait() throws InterruptedException {
+        synchronized (this) {
+            while (!wanted && !closed) {
+                wait(FRAME_MILLIS);
+            }
+        }
+        publish();
+    }
+
+    private void publish() {
+        for (int row = 0; row < model.height; row++) {
+            model.readRow(row, back[row]);
+        }
+        synchronized (this) {
+            long[][] swap = ready;
+            ready = back;
+            back = swap;
+            readyGeneration = model.getGeneration();
+            fresh = true;
+            wanted = false;
+        }
+    }
+
+    /**
+     * Wywoływane przez zegar w wątku Swinga: rysuje nową kopię planszy, jeżeli
+     * jest, albo - po przesunięciu lub powiększeniu - całą planszę od nowa.
+     */
+    private void nextFrame() {
+        boolean newBoard;
+        synchronized (this) {
+            newBoard = fresh;
+            if (fresh) {
+                long[][] swap = front;
+                front = ready;
+                ready = swap;
+                frontGeneration = readyGeneration;
+                fresh = false;
+            }
+            wanted = true;
+            notifyAll();
+        }
+        if (!newBoard && !redrawAll || image == null) {
+            return;
+        }
+        render();
+        frames++;
+        long now = System.nanoTime();
+        if (now - framesSince >= 1_000_000_000L && frame != null) {
+            frame.setTitle(String.format("minilife - pokolenie %d - %d fps",
+                    frontGeneration, frames));
+            frames = 0;
+            framesSince = now;
+        }
+    }
+
+    /**
+     * Wpisuje do obrazu komórki z planszy front (wszystkie widoczne albo
+     * tylko te, które różnią się od shown) i zleca odświeżenie prostokąta,
+     * w którym coś się zmieniło.
+     */
+    private void render() {
+        int imageWidth = image.getWidth();
+        int imageHeight = image.getHeight();
+        int columns = Math.min((imageWidth + cellSize - 1) / cellSize,
+                model.width - originColumn);
+        int rows = Math.min((imageHeight + cellSize - 1) / cellSize,
+                model.height - originRow);
+
+        int dirtyTop = imageHeight;
+        int dirtyBottom = 0;
+        int dirtyLeft = imageWidth;
+        int dirtyRight = 0;
+
+        if (redrawAll) {
+            if (columns * cellSize < imageWidth
+                    || rows * cellSize < imageHeight) {
+                Arrays.fill(pixels, OUTSIDE);
+            }
+
+            // Składamy tylko pierwszą linię pikseli każdego wiersza komórek,
+            // pozostałe linie tego wiersza komórek są jej kopiami.
+            //
+            int lineWidth = Math.min(columns * cellSize, imageWidth);
+            for (int i = 0; i < rows; i++) {
+                long[] words = front[originRow + i];
+                int start = i * cellSize * imageWidth;
+                if (cellSize == 1) {
+                    drawLine(words, originColumn, columns, start);
+                } else {
+                    for (int j = 0; j < columns; j++) {
+                        int column = originColumn + j;
+                        int from = start + j * cellSize;
+                        int to = start
+                                + Math.min((j + 1) * cellSize, imageWidth);
+                        Arrays.fill(pixels, from, to,
+                                color(words[column >>> 6] >>> column));
+                    }
+                }
+                int lines = Math.min(cellSize, imageHeight - i * cellSize);
+                for (int line = 1; line < lines; line++) {
+                    System.arraycopy(pixels, start, pixels,
+                            start + line * imageWidth, lineWidth);
+                }
+            }
+            dirtyTop = 0;
+            dirtyBottom = imageHeight;
+            dirtyLeft = 0;
+            dirtyRight = imageWidth;
+        } else {
+            int firstWord = originColumn >>> 6;
+            int lastWord = (originColumn + columns - 1) >>> 6;
+            for (int i = 0; i < rows; i++) {
+                long[] now = front[originRow + i];
+                long[] before = shown[originRow + i];
+                for (int k = firstWord; k <= lastWord && columns > 0; k++) {
+                    long changed = now[k] ^ before[k];
+                    while (changed != 0) {
+                        int column = (k << 6)
+                                + Long.numberOfTrailingZeros(changed);
+                        changed &= changed - 1;
+                        int j = column - originColumn;
+                        if (j < 0 || j >= columns) {
+                            continue;
+                        }
+                        fillCell(i, j, color(now[k] >>> column));
+                        dirtyTop = Math.min(dirtyTop, i * cellSize);
+                        dirtyBottom = Math.max(dirtyBottom, (i + 1) * cellSize);
+                        dirtyLeft = Math.min(dirtyLeft, j * cellSize);
+                        dirtyRight = Math.max(dirtyRight, (j + 1) * cellSize);
+                    }
+                }
+            }
+        }
+
+        // Niewidoczne wiersze porównujemy dopiero po przesunięciu widoku, a
+        // wtedy i tak rysujemy wszystko - więc ich kopia nie jest potrzebna.
+        //
+        for (int i = 0; i < rows; i++) {
+            System.arraycopy(front[originRow + i], 0, shown[originRow + i], 0,
+                    wordsPerRow);
+        }
+        redrawAll = false;
+        if (dirtyTop < dirtyBottom) {
+            panel.repaint(dirtyLeft, dirtyTop, dirtyRight - dirtyLeft,
+                    dirtyBottom - dirtyTop);
+        }
+    }
+
+    /**
+     * Wpisuje count komórek wiersza, od kolumny column, jako kolejne piksele
+     * od pixel - po jednym pikselu na komórkę. Bity słowa przesuwamy
+     * w zmiennej lokalnej, zamiast za każdym razem czytać słowo z tablicy.
+     */
+    private void drawLine(long[] words, int column, int count, int pixel) {
+        int end = column + count;
+        while (column < end) {
+            long bits = words[column >>> 6] >>> column;
+            int n = Math.min(64 - (column & 63), end - column);
+            for (int b = 0; b < n; b++) {
+                pixels[pixel++] = color(bits >>> b);
+            }
+            column += n;
+        }
+    }
+
+    /**
+     * Kolor komórki, której stan jest najmłodszym bitem bits - bez
+     * rozgałęzień, bo zajęte i puste komórki przeplatają się zwykle bez
+     * żadnej reguły i procesor nie zgadłby, która gałąź będzie wykonana.
+     */
+    private static int color(long bits) {
+        return EMPTY ^ ((EMPTY ^ FILLED) & -(int) (bits & 1));
+    }
+
+    /**
+     * Wypełnia kolorem kwadrat komórki w i-tym wierszu i j-tej kolumnie
+     * widocznej części planszy, przycięty do brzegów obrazu.
+     */
+    private void fillCell(int i, int j, int color) {
+        int imageWidth = image.getWidth();
+        int x = j * cellSize;
+        int y = i * cellSize;
+        if (cellSize == 1) {
+            pixels[y * imageWidth + x] = color;
+            return;
+        }
+        int right = Math.min(x + cellSize, imageWidth);
+        int bottom = Math.min(y + cellSize, image.getHeight());
+        for (int line = y; line < bottom; line++) {
+            Arrays.fill(pixels, line * imageWidth + x,
+                    line * imageWidth + right, color);
+        }
+    }
+
+    /**
+     * Zmienia powiększenie tak, aby komórka pod punktem (x, y) okna została
+     * na swoim miejscu.
+     */
+    private void zoom(int newCellSize, int x, int y) {
+        newCellSize = Math.max(1, Math.min(MAX_CELL_SIZE, newCellSize));
+        int row = originRow + y / cellSize;
+        int column = originColumn + x / cellSize;
+        cellSize = newCellSize;
+        scrollTo(row - y / cellSize, column - x / cellSize);
+    }
+
+    /**
+     * Przesuwa widok, tak aby plansza nie "uciekła" poza okno.
+     */
+    private void scrollTo(int row, int column) {
+        int rows = image != null ? image.getHeight() / cellSize : 0;
+        int columns = image != null ? image.getWidth() / cellSize : 0;
+        originRow = Math.max(0, Math.min(row, model.height - rows));
+        originColumn = Math.max(0, Math.min(column, model.width - columns));
+        redrawAll = true;
+    }
+
+    /**
+     * Panel, na którym jest obraz. Obsługuje też mysz i klawiaturę.
+     */
+    private class BoardPanel extends JPanel {
+
+        private static final long serialVersionUID = 1L;
+
+        private Point dragStart;
+        private int dragRow;
+        private int dragColumn;
+
+        BoardPanel() {
+            setBackground(new Color(OUTSIDE));
+            setFocusable(true);
+            addComponentListener(new ComponentAdapter() {
+                @Override
+                public void componentResized(ComponentEvent event) {
+                    resizeImage(getWidth(), getHeight());
+                }
+            });
+            MouseAdapter mouse = new MouseAdapter() {
+                @Override
+                public void mousePressed(MouseEvent event) {
+                    dragStart = event.getPoint();
+                    dragRow = originRow;
+                    dragColumn = originColumn;
+                }
+
+                @Override
+                public void mouseDragged(MouseEvent event) {
+                    scrollTo(dragRow - (event.getY() - dragStart.y) / cellSize,
+                            dragColumn
+                            - (event.getX() - dragStart.x) / cellSize);
+                }
+
+                @Override
+                public void mouseWheelMoved(MouseWheelEvent event) {
+                    int size = event.getWheelRotation() < 0
+                            ? cellSize * 2 : cellSize / 2;
+                    zoom(size, event.getX(), event.getY());
+                }
+            };
+            addMouseListener(mouse);
+            addMouseMotionListener(mouse);
+            addMouseWheelListener(mouse);
+            addKeyListener(new KeyAdapter() {
+                @Override
+                public void keyPressed(KeyEvent event) {
+                    int rowStep = Math.max(1, getHeight() / cellSize / 8);
+                    int columnStep = Math.max(1, getWidth() / cellSize / 8);
+                    switch (event.getKeyCode()) {
+                        case KeyEvent.VK_UP:
+                            scrollTo(originRow - rowStep, originColumn);
+                            break;
+                        case KeyEvent.VK_DOWN:
+                            scrollTo(originRow + rowStep, originColumn);
+                            break;
+                        case KeyEvent.VK_LEFT:
+                            scrollTo(originRow, originColumn - columnStep);
+                            break;
+                        case KeyEvent.VK_RIGHT:
+                            scrollTo(originRow, originColumn + columnStep);
+                            break;
+                        case KeyEvent.VK_EQUALS:
+                        case KeyEvent.VK_PLUS:
+                        case KeyEvent.VK_ADD:
+                            zoom(cellSize * 2, getWidth() / 2, getHeight() / 2);
+                            break;
+                        case KeyEvent.VK_MINUS:
+                        case KeyEvent.VK_SUBTRACT:
+                            zoom(cellSize / 2, getWidth() / 2, getHeight() / 2);
+                            break;
+                        case KeyEvent.VK_HOME:
+                            cellSize = 1;
+                            scrollTo(0, 0);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            });
+        }
+
+        @Override
+        protected void paintComponent(Graphics graphics) {
+            super.paintComponent(graphics);
+            if (image != null) {
+                graphics.drawImage(image, 0, 0, null);
+            }
+        }
+    }
+
+    /**
+     * Nowy obraz o rozmiarach panelu. Piksele zapisujemy wprost w tablicy
+     * obrazu - getData() zwraca ją bez kopiowania.
+     */
+    private void resizeImage(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+                .getData();
+        scrollTo(originRow, originColumn);
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.util.Arrays;
+
+/**
+ * Odmiana silnika BitboardEngine, która liczy tylko te fragmenty planszy,
+ * w których coś może się zmienić.
+ *
+ * Plansza jest podzielona na prostokątne kafelki (tiles). Dla każdego kafelka
+ * pamiętamy czy zmienił się w ostatnim kroku. Skoro reguła patrzy tylko na
+ * najbliższych sąsiadów, to kafelek, który się nie zmienił i którego żaden
+ * z ośmiu sąsiednich kafelków się nie zmienił, w następnym kroku też się nie
+ * zmieni - i nie trzeba go liczyć. Koszt kroku jest więc proporcjonalny do
+ * obszaru, w którym "coś się dzieje", a nie do rozmiaru całej planszy.
+ *
+ * Pominięty kafelek nie wymaga nawet kopiowania: w planszy updated leży
+ * pokolenie sprzed dwóch kroków, a ono - skoro kafelek się nie zmienił - jest
+ * takie samo jak bieżące.
+ *
+ * @author Sławomir Marczyński
+ */
+class TiledEngine extends BitboardEngine {
+
+    // Kafelek ma TILE_ROWS wierszy i TILE_WORDS słów long w wierszu, czyli
+    // 64 * 256 komórek i 2 KB pamięci.
+    //
+    static final int TILE_ROWS = 64;
+    static final int TILE_WORDS = 4;
+
+    private final int tileRows;
+    private final int tileColumns;
+
+    /*
+     * changed[i] - czy kafelek i zmienił się w ostatnim kroku (albo został
+     * zmieniony przez setCell), nowChanged - to samo dla liczonego kroku,
+     * active - kafelki do policzenia w bieżącym kroku.
+     */
+    private boolean[] changed;
+    private boolean[] nowChanged;
+    private final boolean[] active;
+
+    /*
+     * Liczba zajętych komórek w każdym kafelku, uaktualniana tylko wtedy, gdy
+     * zbierane są statystyki (counting) - o różnicę zajętych i opróżnionych
+     * komórek w policzonych kafelkach. Z niej wynika, które kafelki są puste,
+     * i prostokąt z zajętymi komórkami wystarczy potem doprecyzować
+     * w kafelkach leżących na jego brzegach.
+     */
+    private final long[] tilePopulation;
+
+    TiledEngine(int width, int height) {
+        this(width, height, Boundary.WALL);
+    }
+
+    TiledEngine(int width, int height, Boundary boundary) {
+        super(width, height, boundary);
+        tileRows = (height + TILE_ROWS - 1) / TILE_ROWS;
+        tileColumns = (wordsPerRow + TILE_WORDS - 1) / TILE_WORDS;
+        changed = new boolean[tileRows * tileColumns];
+        nowChanged = new boolean[tileRows * tileColumns];
+        active = new boolean[tileRows * tileColumns];
+        tilePopulation = new long[tileRows * tileColumns];
+
+        // Skrót planszy zmienia się tylko w kafelkach, które się zmieniły - bo
+        // tylko w nich nowe pokolenie różni się od bieżącego.
+        //
+        // Na początku obie plansze board i updated mogą się różnić, więc
+        // pierwszy krok musi policzyć wszystko.
+        //
+        Arrays.fill(changed, true);
+    }
+
+    @Override
+    public void setCell(int row, int column, boolean filled) {
+        super.setCell(row, column, filled);
+        changed[(row / TILE_ROWS) * tileColumns
+                + (column >>> 6) / TILE_WORDS] = true;
+    }
+
+    @Override
+    public void writeRow(int row, long[] words) {
+        super.writeRow(row, words);
+        int tileRow = row / TILE_ROWS;
+        Arrays.fill(changed, tileRow * tileColumns,
+                (tileRow + 1) * tileColumns, true);
+    }
+
+    /**
+     * Kafelki leżące w całości w prostokącie liczą się z gotowych liczników
+     * tilePopulation, a słowo po słowie tylko kafelki przecięte brzegiem
+     * prostokąta - koszt zależy więc od obwodu prostokąta, a nie od jego pola.
+     * Liczniki są uaktualniane razem ze statystykami, więc pierwsze wywołanie
+     * włącza ich zbieranie (patrz statistics).
+     */
+    @Override
+    public long countFilled(int top, int left, int bottom, int right) {
+        if (top >= bottom || left >= right) {
+            return 0;
+        }
+        if (!counting) {
+            statistics();
+        }
+        int tileWidth = TILE_WORDS * 64;
+        long count = 0;
+        for (int tileRow = top / TILE_ROWS; tileRow * TILE_ROWS < bottom;
+                tileRow++) {
+            int fromRow = Math.max(top, tileRow * TILE_ROWS);
+            int toRow = Math.min(bottom, (tileRow + 1) * TILE_ROWS);
+            boolean wholeRows = toRow - fromRow == TILE_ROWS
+                    || toRow == height && fromRow == tileRow * TILE_ROWS;
+            for (int tileColumn = left / tileWidth;
+                    tileColumn * tileWidth < right; tileColumn++) {
+                int fromColumn = Math.max(left, tileColumn * tileWidth);
+                int toColumn = Math.min(right, (tileColumn + 1) * tileWidth);
+                boolean wholeColumns = toColumn - fromColumn == tileWidth
+                        || toColumn == width
+                        && fromColumn == tileColumn * tileWidth;
+                if (wholeRows && wholeColumns) {
+                    count += tilePopulation[tileRow * tileColumns
+                            + tileColumn];
+                } else {
+                    count += super.countFilled(fromRow, fromColumn, toRow,
+                            toColumn);
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public Statistics statistics() {
+        if (!counting) {
+            for (int tile = 0; tile < tilePopulation.length; tile++) {
+                tilePopulation[tile] = countTile(tile);
+            }
+        }
+        return super.statistics();
+    }
+
+    @Override
+    public void evolve() {
+        markActiveTiles();
+        Arrays.fill(nowChanged, false);
+        if (counting) {
+            counted.startGeneration();
+        }
+
+        for (int tileRow = 0; tileRow < tileRows; tileRow++) {
+            int fromRow = tileRow * TILE_ROWS;
+            int toRow = Math.min(fromRow + TILE_ROWS, height);
+            for (int tileColumn = 0; tileColumn < tileColumns; tileColumn++) {
+                int tile = tileRow * tileColumns + tileColumn;
+                if (!active[tile]) {
+                    continue;
+                }
+                int fromWord = tileColumn * TILE_WORDS;
+                int toWord = Math.min(fromWord + TILE_WORDS, wordsPerRow);
+                boolean tileChanged = false;
+                long change = counted.births - counted.deaths;
+                for (int row = fromRow; row < toRow; row++) {
+                    long[] north = northOf(board, row);
+                    long[] south = southOf(board, row);
+                    boolean rowChanged = evolveWords(north, board[row], south,
+                            updated[row], fromWord, toWord);
+                    if (rowChanged && hashing) {
+                        hash ^= hashDelta(row, board[row], updated[row],
+                                fromWord, toWord);
+                    }
+                    if (rowChanged && counting) {
+                        counted.addChanges(board[row], updated[row],
+                                fromWord, toWord);
+                    }
+                    tileChanged |= rowChanged;
+                }
+                nowChanged[tile] = tileChanged;
+                if (counting) {
+                    tilePopulation[tile] += counted.births - counted.deaths
+                            - change;
+                }
+            }
+        }
+
+        long[][] swap = board;
+        board = updated;
+        updated = swap;
+        boolean[] swapChanged = changed;
+        changed = nowChanged;
+        nowChanged = swapChanged;
+
+        if (counting) {
+            counted.finishGeneration();
+            findBoundingBox();
+        }
+    }
+
+    /**
+     * Kafelek jest aktywny jeżeli on sam albo któryś z ośmiu jego sąsiadów
+     * zmienił się w poprzednim kroku. Na torusie sąsiadami kafelków z brzegu
+     * są kafelki z przeciwległego brzegu.
+     */
+    private void markActiveTiles() {
+        Arrays.fill(active, false);
+        boolean torus = boundary == Boundary.TORUS;
+        for (int tileRow = 0; tileRow < tileRows; tileRow++) {
+            for (int tileColumn = 0; tileColumn < tileColumns; tileColumn++) {
+                if (!changed[tileRow * tileColumns + tileColumn]) {
+                    continue;
+                }
+                for (int dr = -1; dr <= 1; dr++) {
+                    int r = tileRow + dr;
+                    if (torus) {
+                        r = (r + tileRows) % tileRows;
+                    } else if (r < 0 || r >= tileRows) {
+                        continue;
+                    }
+                    for (int dc = -1; dc <= 1; dc++) {
+                        int c = tileColumn + dc;
+                        if (torus) {
+                            c = (c + tileColumns) % tileColumns;
+                        } else if (c < 0 || c >= tileColumns) {
+                            continue;
+                        }
+                        active[r * tileColumns + c] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private long countTile(int tile) {
+        int fromRow = (tile / tileColumns) * TILE_ROWS;
+        int toRow = Math.min(fromRow + TILE_ROWS, height);
+        int fromWord = (tile % tileColumns) * TILE_WORDS;
+        int toWord = Math.min(fromWord + TILE_WORDS, wordsPerRow);
+        long population = 0;
+        for (int row = fromRow; row < toRow; row++) {
+            for (int k = fromWord; k < toWord; k++) {
+                population += Long.bitCount(board[row][k]);
+            }
+        }
+        return population;
+    }
+
+    /**
+     * Wyznacza prostokąt z zajętymi komórkami (patrz Statistics). Skrajne
+     * niepuste kafelki wyznaczają go z dokładnością do kafelka, więc
+     * przeglądamy tylko wiersze i słowa tych kafelków - nie całą planszę.
+     */
+    private void findBoundingBox() {
+        if (counted.population == 0) {
+            return;
+        }
+        int firstTileRow = tileRows;
+        int lastTileRow = -1;
+        int firstTileColumn = tileColumns;
+        int lastTileColumn = -1;
+        for (int tile = 0; tile < tilePopulation.length; tile++) {
+            if (tilePopulation[tile] != 0) {
+                int tileRow = tile / tileColumns;
+                int tileColumn = tile % tileColumns;
+                firstTileRow = Math.min(firstTileRow, tileRow);
+                lastTileRow = Math.max(lastTileRow, tileRow);
+                firstTileColumn = Math.min(firstTileColumn, tileColumn);
+                lastTileColumn = Math.max(lastTileColumn, tileColumn);
+            }
+        }
+
+        // Górny wiersz prostokąta leży w górnym rzędzie niepustych kafelków,
+        // a lewa kolumna w słowach lewej kolumny niepustych kafelków - i tak
+        // samo z dołu i z prawej.
+        //
+        int fromWord = firstTileColumn * TILE_WORDS;
+        int toWord = Math.min((lastTileColumn + 1) * TILE_WORDS, wordsPerRow);
+        int westWord = Math.min(fromWord + TILE_WORDS, toWord);
+        int eastWord = lastTileColumn * TILE_WORDS;
+        int top = firstTileRow * TILE_ROWS;
+        while (isEmptyRow(top, fromWord, toWord)) {
+            top++;
+        }
+        int bottom = Math.min((lastTileRow + 1) * TILE_ROWS, height) - 1;
+        while (isEmptyRow(bottom, fromWord, toWord)) {
+            bottom--;
+        }
+        int left = Integer.MAX_VALUE;
+        int right = -1;
+        for (int row = top; row <= bottom; row++) {
+            long[] words = board[row];
+            for (int k = fromWord; k < westWord; k++) {
+                if (words[k] != 0) {
+                    left = Math.min(left,
+                            (k << 6) + Long.numberOfTrailingZeros(words[k]));
+                    break;
+                }
+            }
+            for (int k = toWord - 1; k >= eastWord; k--) {
+                if (words[k] != 0) {
+                    right = Math.max(right, (k << 6) + 63
+                            - Long.numberOfLeadingZeros(words[k]));
+                    break;
+                }
+            }
+        }
+        counted.top = top;
+        counted.bottom = bottom;
+        counted.left = left;
+        counted.right = right;
+    }
+
+    private boolean isEmptyRow(int row, int fromWord, int toWord) {
+        for (int k = fromWord; k < toWord; k++) {
+            if (board[row][k] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -23,37 +23,278 @@
  */
 package minilife;
 
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * Klasa View odpowiedzialna za pokazanie modelu tak aby dało się go oglądać.
  *
+ * Wypisywanie na konsolę znak po znaku jest bardzo wolne - każde wywołanie
+ * System.out.print to osobne przejście przez strumienie, kodowanie znaków
+ * i synchronizację. Dlatego cały obraz planszy składamy najpierw w tablicy
+ * bajtów (tworzonej raz i używanej ponownie) i wysyłamy jednym wywołaniem
+ * write().
+ *
+ * W trybie delta (opcja --ansi) po pierwszym obrazie wysyłamy tylko komórki,
+ * które zmieniły się od poprzedniego obrazu - każdą poprzedzoną sekwencją
+ * ANSI ustawiającą kursor w odpowiednim miejscu ekranu.
+ *
+ * Dużej planszy nie ma sensu rysować w całości, więc można wybrać okno
+ * (viewport) - prostokąt planszy do narysowania - i skalę (zoom): przy
+ * skali k jeden znak to kwadrat k na k komórek, a znak zależy od tego jaka
+ * część komórek kwadratu jest zajęta (patrz SHADES). Zajęte komórki liczy
+ * plansza (Board.countFilled) - silniki tiled i hashlife mają gotowe liczniki
+ * dla całych kafelków i węzłów, więc koszt rysowania zależy od wielkości
+ * okna, a nie całej planszy. Okno nie może jednak mieć więcej niż
+ * MAX_CHARACTERS znaków.
+ *
  * @author Sławomir Marczyński
  */
 public class View {
 
-    private Model model;
+    /**
+     * Największa liczba znaków okna - obraz takiego okna zajmuje ponad 32 MB
+     * i i tak nie mieści się na żadnym ekranie.
+     */
+    static final long MAX_CHARACTERS = 1 << 24;
+
+    private static final byte FILLED = '*';
+    private static final byte EMPTY = '.';
+
+    // Znaki dla skali większej niż 1: od pustego kwadratu do całkiem
+    // zapełnionego. Każdy kwadrat z choćby jedną zajętą komórką jest różny od
+    // pustego - pojedyncze komórki nie znikają przy pomniejszaniu.
+    //
+    private static final byte[] SHADES
+            = ".:-=+*#%@".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NEW_LINE
+            = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLEAR_SCREEN
+            = "\033[2J\033[H".getBytes(StandardCharsets.US_ASCII);
+
+    private final Model model;
+    private final boolean delta;
+
+    // Okno planszy: komórki od (top, left) do (bottom, right), bez bottom
+    // i right, po zoom na zoom komórek na znak - czyli rows wierszy i columns
+    // kolumn znaków.
+    //
+    private final int top;
+    private final int left;
+    private final int bottom;
+    private final int right;
+    private final int zoom;
+    private final int rows;
+    private final int columns;
+    private final PrintStream out = System.out;
+
+    /*
+     * frame - bufor, w którym składamy obraz; shown - co jest obecnie
+     * pokazane na ekranie (jeden bajt na znak), potrzebne tylko w trybie
+     * delta.
+     */
+    private byte[] frame;
+    private final byte[] shown;
+    private boolean firstFrame = true;
 
     View(Model model) {
+        this(model, false);
+    }
+
+    View(Model model, boolean delta) {
+        this(model, delta, 0, 0, 0, 0, 1);
+    }
+
+    /**
+     * Widok z opcjami --ansi, --viewport i --zoom.
+     *
+     * @param model model
+     * @param options opcje programu
+     */
+    View(Model model, Options options) {
+        this(model, options.ansi, options.viewTop, options.viewLeft,
+                options.viewRows, options.viewColumns, options.zoom);
+    }
+
+    /**
+     * Widok okna planszy. Okno wystające poza planszę jest przycinane do jej
+     * brzegów.
+     *
+     * @param model model
+     * @param delta czy rysować tylko zmiany
+     * @param top pierwszy wiersz okna
+     * @param left pierwsza kolumna okna
+     * @param height liczba wierszy okna, 0 - do dolnego brzegu planszy
+     * @param width liczba kolumn okna, 0 - do prawego brzegu planszy
+     * @param zoom ile komórek w pionie i w poziomie na jeden znak
+     * @throws IllegalArgumentException gdy okno ma więcej niż MAX_CHARACTERS
+     * znaków
+     */
+    View(Model model, boolean delta, int top, int left, int height,
+            int width, int zoom) {
         this.model = model;
+        this.delta = delta;
+        this.top = Math.min(top, model.height);
+        this.left = Math.min(left, model.width);
+        bottom = height > 0 ? (int) Math.min((long) this.top + height,
+                model.height) : model.height;
+        right = width > 0 ? (int) Math.min((long) this.left + width,
+                model.width) : model.width;
+        this.zoom = zoom;
+        rows = (int) (((long) bottom - this.top + zoom - 1) / zoom);
+        columns = (int) (((long) right - this.left + zoom - 1) / zoom);
+        long characters = (long) rows * columns;
+        if (characters > MAX_CHARACTERS) {
+            throw new IllegalArgumentException("Okno planszy to " + rows
+                    + " na " + columns + " znaków, a można narysować najwyżej "
+                    + MAX_CHARACTERS + " - wybierz mniejsze okno opcją "
+                    + "--viewport albo większą skalę opcją --zoom.");
+        }
+        frame = new byte[(rows + 2) * NEW_LINE.length
+                + (int) characters * 2];
+        shown = delta ? new byte[(int) characters] : null;
     }
 
     void paint() {
-        int width = model.width;
-        int height = model.height;
+        paint(model);
+    }
+
+    /**
+     * Znak dla wiersza row i kolumny column okna: przy skali 1 po prostu
+     * komórka planszy, przy większej - kwadrat komórek (przy brzegu okna może
+     * być mniejszy) według tego, jaka jego część jest zajęta.
+     */
+    private byte glyph(Board board, int row, int column) {
+        if (zoom == 1) {
+            return board.isFilledCell(top + row, left + column)
+                    ? FILLED : EMPTY;
+        }
+        int fromRow = top + row * zoom;
+        int fromColumn = left + column * zoom;
+        int toRow = Math.min(fromRow + zoom, bottom);
+        int toColumn = Math.min(fromColumn + zoom, right);
+        long filled = board.countFilled(fromRow, fromColumn, toRow, toColumn);
+        if (filled == 0) {
+            return SHADES[0];
+        }
+        long cells = (long) (toRow - fromRow) * (toColumn - fromColumn);
+        long shade = 1 + filled * (SHADES.length - 2) / cells;
+        return SHADES[(int) shade];
+    }
 
-        System.out.println();
+    /**
+     * Rysuje dowolną planszę o rozmiarach takich jak plansza modelu, np. kopię
+     * jednego pokolenia (patrz Pipeline) - nie odwołuje się wtedy do modelu
+     * i może być wywołana w innym wątku niż ten, który zmienia model.
+     *
+     * @param board plansza
+     */
+    void paint(Board board) {
+        if (delta && !firstFrame) {
+            paintChanges(board);
+        } else {
+            paintAll(board);
+        }
+        firstFrame = false;
+    }
+
+    /**
+     * Cały obraz: pusty wiersz, wiersze planszy ("* " albo ". " na komórkę)
+     * i znowu pusty wiersz - tak samo jak zawsze wyglądało to w tym programie.
+     */
+    private void paintAll(Board board) {
 
-        for (int row = 0; row < height; row++) {
-            for (int column = 0; column < width; column++) {
-                if (model.isFilledCell(row, column)) {
-                    System.out.print("* ");
-                } else {
-                    System.out.print(". ");
+        if (delta) {
+            out.write(CLEAR_SCREEN, 0, CLEAR_SCREEN.length);
+        }
+
+        int length = 0;
+        length = newLine(length);
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                byte glyph = glyph(board, row, column);
+                frame[length++] = glyph;
+                frame[length++] = ' ';
+                if (delta) {
+                    shown[row * columns + column] = glyph;
                 }
             }
-            System.out.println();
+            length = newLine(length);
         }
+        length = newLine(length);
 
-        System.out.println();
+        out.write(frame, 0, length);
+        out.flush();
+    }
 
+    /**
+     * Tylko zmienione komórki. Sekwencja ESC [ wiersz ; kolumna H przenosi
+     * kursor terminala (wiersze i kolumny ekranu liczone są od 1). Po
+     * narysowaniu zmian kursor wraca pod planszę.
+     */
+    private void paintChanges(Board board) {
+        int length = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                byte glyph = glyph(board, row, column);
+                if (shown[row * columns + column] != glyph) {
+                    shown[row * columns + column] = glyph;
+                    length = ensureCapacity(length, 24);
+                    length = moveCursor(length, row + 2, 2 * column + 1);
+                    frame[length++] = glyph;
+                }
+            }
+        }
+        length = ensureCapacity(length, 24);
+        length = moveCursor(length, rows + 3, 1);
+
+        out.write(frame, 0, length);
+        out.flush();
+    }
+
+    private int newLine(int length) {
+        System.arraycopy(NEW_LINE, 0, frame, length, NEW_LINE.length);
+        return length + NEW_LINE.length;
+    }
+
+    private int moveCursor(int length, int screenRow, int screenColumn) {
+        frame[length++] = 0x1B;
+        frame[length++] = '[';
+        length = appendNumber(length, screenRow);
+        frame[length++] = ';';
+        length = appendNumber(length, screenColumn);
+        frame[length++] = 'H';
+        return length;
+    }
+
+    private int appendNumber(int length, int number) {
+        int start = length;
+        do {
+            frame[length++] = (byte) ('0' + number % 10);
+            number /= 10;
+        } while (number > 0);
+
+        // Cyfry wpisaliśmy od najmniej znaczącej, więc trzeba je odwrócić.
+        //
+        for (int i = start, j = length - 1; i < j; i++, j--) {
+            byte swap = frame[i];
+            frame[i] = frame[j];
+            frame[j] = swap;
+        }
+        return length;
+    }
+
+    /**
+     * Powiększa bufor jeżeli zostało w nim mniej niż needed wolnych bajtów.
+     * Obraz zmian może być dłuższy niż cały obraz (gdy zmieni się prawie
+     * wszystko), ale po kilku krokach bufor osiąga potrzebny rozmiar i potem
+     * już nic nie jest alokowane.
+     */
+    private int ensureCapacity(int length, int needed) {
+        if (frame.length - length < needed) {
+            frame = Arrays.copyOf(frame, 2 * frame.length + needed);
+        }
+        return length;
     }
 }
@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2021 Sławomir Marczyński.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package minilife;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Proces roboczy silnika rozproszonego (patrz DistributedEngine): przechowuje
+ * jeden poziomy pas planszy i wykonuje polecenia koordynatora.
+ *
+ * Uruchamiany przez koordynatora jako osobna maszyna JVM, z parametrami: port
+ * koordynatora i numer procesu. Kończy działanie, gdy koordynator zamknie
+ * połączenie.
+ *
+ * @author Sławomir Marczyński
+ */
+class Worker {
+
+    private final DataInputStream control;
+    private final DataOutputStream reply;
+
+    private int firstRow;
+    private int wordsPerRow;
+    private BitboardEngine strip;
+
+    // Połączenia z sąsiadami z północy i z południa, null jeżeli pas leży na
+    // brzegu planszy (i plansza nie jest torusem).
+    //
+    private DataInputStream northInput;
+    private DataOutputStream northOutput;
+    private DataInputStream southInput;
+    private DataOutputStream southOutput;
+
+    // Wiersze z zakładki i kopie brzegowych wierszy pasa do wysłania.
+    //
+    private long[] northHalo;
+    private long[] southHalo;
+    private long[] firstWords;
+    private long[] lastWords;
+
+    // Wysyłanie odbywa się w osobnym wątku, jednocześnie z odbieraniem
+    // - inaczej dwa procesy wysyłające sobie nawzajem długie wiersze mogłyby
+    // czekać na siebie w nieskończoność, gdy zapełnią się bufory gniazd.
+    //
+    private final ExecutorService sender = Executors.newSingleThreadExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable);
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * Punkt wejścia procesu roboczego.
+     *
+     * @param args port koordynatora i numer procesu
+     */
+    public static void main(String[] args) {
+        try {
+            int port = Integer.parseInt(args[0]);
+            int index = Integer.parseInt(args[1]);
+            new Worker(port, index).run();
+        } catch (EOFException exception) {
+
+            // Koordynator zamknął połączenie - to zwykły koniec pracy.
+            //
+        } catch (IOException | InterruptedException
+                | ExecutionException exception) {
+            System.err.println("Proces roboczy: " + exception);
+            System.exit(1);
+        }
+    }
+
+    private Worker(int port, int index) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        control = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+        reply = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+
+        try (ServerSocket peers = new ServerSocket(0, 1,
+                InetAddress.getLoopbackAddress())) {
+            reply.writeInt(index);
+            reply.writeInt(peers.getLocalPort());
+            reply.flush();
+
+            int width = control.readInt();
+            int height = control.readInt();
+            firstRow = control.readInt();
+            int endRow = control.readInt();
+            Boundary boundary = Boundary.values()[control.readInt()];
+            boolean hasNorth = control.readBoolean();
+            int southPort = control.readInt();
+
+            // Najpierw łączymy się z sąsiadem z południa, potem przyjmujemy
+            // połączenie od sąsiada z północy. Wszyscy czekają na połączenia
+            // już od chwili zgłoszenia się, więc nikt nie czeka na próżno.
+            //
+            if (southPort >= 0) {
+                Socket south = new Socket(InetAddress.getLoopbackAddress(),
+                        southPort);
+                south.setTcpNoDelay(true);
+                southInput = new DataInputStream(
+                        new BufferedInputStream(south.getInputStream()));
+                southOutput = new DataOutputStream(
+                        new BufferedOutputStream(south.getOutputStream()));
+            }
+            if (hasNorth) {
+                Socket north = peers.accept();
+                north.setTcpNoDelay(true);
+                northInput = new DataInputStream(
+                        new BufferedInputStream(north.getInputStream()));
+                northOutput = new DataOutputStream(
+                        new BufferedOutputStream(north.getOutputStream()));
+            }
+
+            strip = new BitboardEngine(width, endRow - firstRow, boundary);
+            wordsPerRow = strip.wordsPerRow;
+            northHalo = new long[wordsPerRow];
+            southHalo = new long[wordsPerRow];
+            firstWords = new long[wordsPerRow];
+            lastWords = new long[wordsPerRow];
+        }
+        reply.writeByte(DistributedEngine.READY);
+        reply.flush();
+    }
+
+    private void run() throws IOException, InterruptedException,
+            ExecutionException {
+        long[] words = new long[wordsPerRow];
+        while (true) {
+            byte command = control.readByte();
+            switch (command) {
+                case DistributedEngine.SET_CELL:
+                    int row = control.readInt();
+                    int column = control.readInt();
+                    strip.setCell(row, column, control.readBoolean());
+                    break;
+                case DistributedEngine.READ_ROW:
+                    strip.readRow(control.readInt(), words);
+                    DistributedEngine.writeWords(reply, words, wordsPerRow);
+                    reply.flush();
+                    break;
+                case DistributedEngine.WRITE_ROW:
+                    row = control.readInt();
+                    DistributedEngine.readWords(control, words, wordsPerRow);
+                    strip.writeRow(row, words);
+                    break;
+                case DistributedEngine.EVOLVE:
+                    long generations = control.readLong();
+                    for (long i = 0; i < generations; i++) {
+                        evolve();
+                    }
+                    reply.writeByte(DistributedEngine.READY);
+                    reply.flush();
+                    break;
+                case DistributedEngine.HASH:
+                    reply.writeLong(hash());
+                    reply.flush();
+                    break;
+                default:
+                    throw new IOException("Nieznane polecenie: " + command);
+            }
+        }
+    }
+
+    /**
+     * Jedno pokolenie: wymiana wierszy brzegowych z sąsiadami, potem liczenie
+     * pasa.
+     */
+    private void evolve() throws IOException, InterruptedException,
+            ExecutionException {
+        strip.readRow(0, firstWords);
+        strip.readRow(strip.height - 1, lastWords);
+        Future<?> sending = sender.submit(() -> {
+            if (northOutput != null) {
+                DistributedEngine.writeWords(northOutput, firstWords,
+                        wordsPerRow);
+                northOutput.flush();
+            }
+            if (southOutput != null) {
+                DistributedEngine.writeWords(southOutput, lastWords,
+                        wordsPerRow);
+                southOutput.flush();
+            }
+            return null;
+        });
+        if (northInput != null) {
+            DistributedEngine.readWords(northInput, northHalo, wordsPerRow);
+        }
+        if (southInput != null) {
+            DistributedEngine.readWords(southInput, southHalo, wordsPerRow);
+        }
+        sending.get();
+        strip.evolve(northInput != null ? northHalo : null,
+                southInput != null ? southHalo : null);
+    }
+
+    /**
+     * Skrót pasa liczony z numerami wierszy całej planszy - skróty wszystkich
+     * pasów złożone operacją XOR dają skrót całej planszy.
+     */
+    private long hash() {
+        long[] words = new long[wordsPerRow];
+        long hash = 0;
+        for (int row = 0; row < strip.height; row++) {
+            strip.readRow(row, words);
+            for (int k = 0; k < wordsPerRow; k++) {
+                hash ^= Engine.hashWord(firstRow + row, k, words[k]);
+            }
+        }
+        return hash;
+    }
+}